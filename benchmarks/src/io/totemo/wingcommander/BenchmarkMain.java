@@ -0,0 +1,29 @@
+package io.totemo.wingcommander;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// ----------------------------------------------------------------------------
+/**
+ * Entry point of benchmarks.jar.
+ *
+ * Accepts the same arguments as JMH's own main class, but always enables the
+ * GC profiler so that allocation rates are reported alongside throughput.
+ */
+public class BenchmarkMain {
+    /**
+     * Run the benchmarks.
+     *
+     * @param args JMH command line arguments.
+     * @throws CommandLineOptionException if the arguments are invalid.
+     * @throws RunnerException if a benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+    }
+} // class BenchmarkMain
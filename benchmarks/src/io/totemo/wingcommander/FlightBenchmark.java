@@ -0,0 +1,173 @@
+package io.totemo.wingcommander;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the per-tick work done for gliding players.
+ *
+ * Each invocation processes one server tick for every simulated player, so
+ * the reported throughput is in ticks per second for the given number of
+ * gliders.
+ *
+ * {@link #stubBaseline(Blackhole)} makes only the Player calls that every
+ * ticked player makes, so its time and allocation can be subtracted from the
+ * other benchmarks to discount the cost of the stubs themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlightBenchmark {
+    /**
+     * Number of simultaneously gliding players.
+     */
+    @Param({ "1", "100", "1000" })
+    public int gliders;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the simulated players.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _simulation = new Simulation(gliders);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the simulation's gauge worker threads.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _simulation.stop();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The whole tick task: thrust, gauges and vacuum checks for every glider.
+     */
+    @Benchmark
+    public void tick() {
+        _simulation.tick();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Thrust alone: velocity update, exhaust particles and engine sound.
+     */
+    @Benchmark
+    public void accelerate() {
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        PlayerState[] states = _simulation.getStates();
+        ThrustBatch thrust = _simulation.getPlugin()._gliders.getThrustBatch();
+        ++_tick;
+        for (int i = 0; i < states.length; ++i) {
+            players[i].step();
+            states[i]._snapshot.capture(states[i]._player, _tick);
+            thrust.add(states[i], WingCommander.CONFIG.ACCELERATION_LOOK);
+        }
+        thrust.apply(_tick);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Gauge updates alone, computed by the gauge worker threads and applied
+     * on the next invocation, as in the tick task.
+     */
+    @Benchmark
+    public void updateBossBars() {
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        PlayerState[] states = _simulation.getStates();
+        GaugePipeline gauges = _simulation.getRegistry()._gauges;
+        ++_tick;
+        if (gauges != null) {
+            gauges.apply();
+        }
+        for (int i = 0; i < states.length; ++i) {
+            players[i].step();
+            states[i]._tick = _tick;
+            states[i]._snapshot.capture(states[i]._player, _tick);
+            states[i].updateBossBars(gauges);
+        }
+        if (gauges != null) {
+            gauges.submit();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Gauge updates alone, computed and applied on the calling thread, as
+     * when gauge_worker_threads is 0.
+     */
+    @Benchmark
+    public void updateBossBarsSynchronous() {
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        PlayerState[] states = _simulation.getStates();
+        ++_tick;
+        for (int i = 0; i < states.length; ++i) {
+            players[i].step();
+            states[i]._tick = _tick;
+            states[i]._snapshot.capture(states[i]._player, _tick);
+            states[i].updateBossBars(null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The stubbed Player calls made when capturing each player's
+     * FlightSnapshot, and nothing else.
+     *
+     * @param blackhole consumes the results.
+     */
+    @Benchmark
+    public void stubBaseline(Blackhole blackhole) {
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        for (int i = 0; i < players.length; ++i) {
+            players[i].step();
+            Player player = players[i].getPlayer();
+            blackhole.consume(player.getLocation(_location));
+            blackhole.consume(player.getVelocity());
+            blackhole.consume(player.isGliding());
+            blackhole.consume(player.isSneaking());
+            blackhole.consume(player.isOnGround());
+            blackhole.consume(player.isFlying());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The simulated server.
+     */
+    protected Simulation _simulation;
+
+    /**
+     * Tick number passed to gauge updates.
+     */
+    protected long _tick;
+
+    /**
+     * Reused by {@link #stubBaseline(Blackhole)}, as FlightSnapshot reuses its
+     * Location.
+     */
+    protected Location _location = new Location(null, 0, 0, 0);
+} // class FlightBenchmark
@@ -0,0 +1,262 @@
+package io.totemo.wingcommander;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * A sequence of per-tick player inputs, replayed by {@link LoadSimulation}.
+ *
+ * A recording file has one line per tick, holding:
+ *
+ * <pre>
+ * x y z yaw pitch [flags]
+ * </pre>
+ *
+ * where flags is any combination of the letters:
+ * <ul>
+ * <li>S - crouching,</li>
+ * <li>G - gliding,</li>
+ * <li>O - on the ground,</li>
+ * <li>T - left clicking the air to throw TNT.</li>
+ * </ul>
+ * A flags field of '-' means none. Blank lines and lines beginning with '#'
+ * are ignored.
+ */
+public class FlightRecording {
+    /**
+     * Flag set if the player is crouching.
+     */
+    public static final int SNEAKING = 1 << 0;
+
+    /**
+     * Flag set if the player is gliding.
+     */
+    public static final int GLIDING = 1 << 1;
+
+    /**
+     * Flag set if the player is on the ground.
+     */
+    public static final int ON_GROUND = 1 << 2;
+
+    /**
+     * Flag set if the player throws TNT.
+     */
+    public static final int THROW_TNT = 1 << 3;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a recording from a file.
+     *
+     * @param file the file.
+     * @return the recording.
+     * @throws IOException on I/O error, or if the file is malformed or empty.
+     */
+    public static FlightRecording load(File file) throws IOException {
+        FlightRecording recording = new FlightRecording();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length < 5 || fields.length > 6) {
+                    throw new IOException(file.getName() + ":" + lineNumber + ": expected x y z yaw pitch [flags]");
+                }
+                try {
+                    recording.add(Double.parseDouble(fields[0]),
+                                  Double.parseDouble(fields[1]),
+                                  Double.parseDouble(fields[2]),
+                                  Float.parseFloat(fields[3]),
+                                  Float.parseFloat(fields[4]),
+                                  (fields.length > 5) ? parseFlags(fields[5]) : 0);
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException(file.getName() + ":" + lineNumber + ": " + ex.getMessage());
+                }
+            }
+        }
+        if (recording.size() == 0) {
+            throw new IOException(file.getName() + " contains no ticks");
+        }
+        return recording;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a scripted flight, used when no recording is specified.
+     *
+     * The player stands for a second, double-taps crouch to take off, climbs
+     * under power, glides while dropping TNT once a second, dives back to
+     * the ground and lands. The flight lasts 30 seconds.
+     *
+     * @return the recording.
+     */
+    public static FlightRecording scripted() {
+        FlightRecording recording = new FlightRecording();
+        double x = 0, y = 64, z = 0;
+        for (int tick = 0; tick < 600; ++tick) {
+            int flags;
+            float pitch;
+            if (tick < 20) {
+                // Stand, then double-tap crouch.
+                flags = ON_GROUND | ((tick == 14 || tick == 18) ? SNEAKING : 0);
+                pitch = -30;
+            } else if (tick < 200) {
+                // Powered climb.
+                flags = GLIDING | SNEAKING;
+                pitch = -30;
+                y += 0.6;
+                z += 1.0;
+            } else if (tick < 500) {
+                // Unpowered glide, bombing.
+                flags = GLIDING | ((tick % 20 == 0) ? THROW_TNT : 0);
+                pitch = 5;
+                y -= 0.1;
+                z += 1.2;
+            } else if (y > 64) {
+                // Dive.
+                flags = GLIDING;
+                pitch = 40;
+                y = Math.max(64, y - 1.5);
+                z += 1.5;
+            } else {
+                flags = ON_GROUND;
+                pitch = 0;
+            }
+            recording.add(x, y, z, 0, pitch, flags);
+        }
+        return recording;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a tick to the recording.
+     *
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @param z the z coordinate.
+     * @param yaw the yaw in degrees.
+     * @param pitch the pitch in degrees.
+     * @param flags the combination of flag bits.
+     */
+    public void add(double x, double y, double z, float yaw, float pitch, int flags) {
+        if (_size == _flags.length) {
+            int capacity = 2 * _size;
+            _x = Arrays.copyOf(_x, capacity);
+            _y = Arrays.copyOf(_y, capacity);
+            _z = Arrays.copyOf(_z, capacity);
+            _yaw = Arrays.copyOf(_yaw, capacity);
+            _pitch = Arrays.copyOf(_pitch, capacity);
+            _flags = Arrays.copyOf(_flags, capacity);
+        }
+        _x[_size] = x;
+        _y[_size] = y;
+        _z[_size] = z;
+        _yaw[_size] = yaw;
+        _pitch[_size] = pitch;
+        _flags[_size] = flags;
+        ++_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks in the recording.
+     *
+     * @return the number of ticks.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move the player to the position recorded at the specified tick and set
+     * their crouching, gliding and on-ground state.
+     *
+     * @param tick the tick index, in [0, size()).
+     * @param player the player.
+     * @param dx offset added to the recorded x coordinate.
+     * @param dz offset added to the recorded z coordinate.
+     */
+    public void apply(int tick, SimulatedPlayer player, double dx, double dz) {
+        player.moveTo(_x[tick] + dx, _y[tick], _z[tick] + dz, _yaw[tick], _pitch[tick]);
+        int flags = _flags[tick];
+        player.setSneaking((flags & SNEAKING) != 0);
+        player.setGliding((flags & GLIDING) != 0);
+        player.setOnGround((flags & ON_GROUND) != 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags recorded at the specified tick.
+     *
+     * @param tick the tick index, in [0, size()).
+     * @return the combination of flag bits.
+     */
+    public int getFlags(int tick) {
+        return _flags[tick];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse a string of flag letters.
+     *
+     * @param letters the letters.
+     * @return the combination of flag bits.
+     * @throws IllegalArgumentException if a letter is not recognised.
+     */
+    protected static int parseFlags(String letters) {
+        int flags = 0;
+        for (char letter : letters.toUpperCase().toCharArray()) {
+            switch (letter) {
+            case 'S':
+                flags |= SNEAKING;
+                break;
+            case 'G':
+                flags |= GLIDING;
+                break;
+            case 'O':
+                flags |= ON_GROUND;
+                break;
+            case 'T':
+                flags |= THROW_TNT;
+                break;
+            case '-':
+                break;
+            default:
+                throw new IllegalArgumentException("unknown flag '" + letter + "'");
+            }
+        }
+        return flags;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of recorded ticks.
+     */
+    protected int _size;
+
+    /**
+     * Positions, by tick.
+     */
+    protected double[] _x = new double[64], _y = new double[64], _z = new double[64];
+
+    /**
+     * Look directions, by tick.
+     */
+    protected float[] _yaw = new float[64], _pitch = new float[64];
+
+    /**
+     * Flags, by tick.
+     */
+    protected int[] _flags = new int[64];
+} // class FlightRecording
@@ -0,0 +1,91 @@
+package io.totemo.wingcommander;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the table lookups done by every gauge update: the bar colour
+ * and the title for a reading.
+ *
+ * Each invocation looks up every altitude from 0 to 399 inclusive.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(GaugeLookupBenchmark.READINGS)
+public class GaugeLookupBenchmark {
+    /**
+     * Number of readings looked up per invocation.
+     */
+    public static final int READINGS = 400;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the configuration.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _simulation = new Simulation(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the simulation's gauge worker threads.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _simulation.stop();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Altimeter colour lookup.
+     *
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void barColour(Blackhole blackhole) {
+        Configuration config = WingCommander.CONFIG;
+        for (int altitude = 0; altitude < READINGS; ++altitude) {
+            blackhole.consume(config.getBarColor(config.ALTIMETER_COLOURS, altitude));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Altimeter title lookup.
+     *
+     * @param blackhole consumes results.
+     */
+    @Benchmark
+    public void title(Blackhole blackhole) {
+        TitleTable titles = WingCommander.CONFIG.ALTIMETER_TITLES;
+        for (int altitude = 0; altitude < READINGS; ++altitude) {
+            blackhole.consume(titles.get(altitude));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The simulated server, which holds the loaded configuration.
+     */
+    protected Simulation _simulation;
+} // class GaugeLookupBenchmark
@@ -0,0 +1,131 @@
+package io.totemo.wingcommander;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmark of TNT throwing: each invocation handles one left click in the
+ * air by every simulated player, all of whom are gliding with TNT in hand.
+ *
+ * {@link #throwTNT()} measures TNT being spawned, with the rate and live TNT
+ * limits disabled. {@link #throwTNTThrottled()} measures clicks refused by
+ * the default limits, as when a player uses an auto-clicker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractBenchmark {
+    /**
+     * Number of simultaneously gliding players.
+     */
+    @Param({ "1", "100", "1000" })
+    public int gliders;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the simulated players and their events.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        _simulation = new Simulation(gliders);
+        _throttledConfig = WingCommander.CONFIG;
+        _unlimitedConfig = Simulation.createConfiguration("tnt.rate_per_second", 0,
+                                                          "tnt.max_per_chunk", 0,
+                                                          "tnt.max_live", 0);
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        _events = new PlayerInteractEvent[players.length];
+        for (int i = 0; i < players.length; ++i) {
+            _events[i] = new PlayerInteractEvent(players[i].getPlayer(), Action.LEFT_CLICK_AIR,
+                                                 players[i].getMainHand(), null, null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the simulation's gauge worker threads.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _simulation.stop();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Throw one TNT per player, with no limits.
+     *
+     * Each TNT is released from the live TNT budget straight after it is
+     * spawned, as if it had exploded, so that the budget stays the same size
+     * throughout the benchmark.
+     */
+    @Benchmark
+    public void throwTNT() {
+        WingCommander.CONFIG = _unlimitedConfig;
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        WingCommander plugin = _simulation.getPlugin();
+        for (int i = 0; i < _events.length; ++i) {
+            // Never run out.
+            players[i].getMainHand().setAmount(64);
+            plugin.onPlayerInteract(_events[i]);
+            plugin._tntBudget.release(Stubs.LAST_ENTITY_ID);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Throw one TNT per player, with the default limits.
+     *
+     * The simulated tick never advances, so after each player's initial burst,
+     * every click is refused by their TNT rate limit.
+     */
+    @Benchmark
+    public void throwTNTThrottled() {
+        WingCommander.CONFIG = _throttledConfig;
+        SimulatedPlayer[] players = _simulation.getPlayers();
+        WingCommander plugin = _simulation.getPlugin();
+        for (int i = 0; i < _events.length; ++i) {
+            // Never run out.
+            players[i].getMainHand().setAmount(64);
+            plugin.onPlayerInteract(_events[i]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The simulated server.
+     */
+    protected Simulation _simulation;
+
+    /**
+     * The default configuration.
+     */
+    protected Configuration _throttledConfig;
+
+    /**
+     * The default configuration, with TNT rate and live TNT limits disabled.
+     */
+    protected Configuration _unlimitedConfig;
+
+    /**
+     * One reusable event per player.
+     */
+    protected PlayerInteractEvent[] _events;
+} // class InteractBenchmark
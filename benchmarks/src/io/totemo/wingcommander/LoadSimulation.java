@@ -0,0 +1,239 @@
+package io.totemo.wingcommander;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerToggleSneakEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Headless load simulation: replays a flight for many virtual players against
+ * the plugin, with no server, and reports the cost per server tick.
+ *
+ * Every player replays the same {@link FlightRecording}, each starting at a
+ * different point in it and offset horizontally from the others. On each
+ * tick, the inputs from the recording are applied to the players, then the
+ * plugin handles the resulting crouch and TNT throw events and runs its tick
+ * task, exactly as the server would call it. Only the plugin's handling is
+ * timed.
+ *
+ * The report gives the time per tick, bytes allocated per tick and the number
+ * of BossBar, particle and sound calls per tick. Allocations include those of
+ * the stub proxies' argument arrays, so they overstate the plugin's own
+ * allocation somewhat. Gauge updates are computed by the gauge worker
+ * threads, if configured, as on a server; the tick time includes waiting for
+ * them, but their allocations are not counted.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar io.totemo.wingcommander.LoadSimulation
+ *     [--players N] [--ticks N] [--warmup N] [--budget-ms MS] [--recording FILE]
+ * </pre>
+ *
+ * The process exits with status 1 if the 99th percentile tick time exceeds
+ * the budget.
+ */
+public class LoadSimulation {
+    /**
+     * Run the simulation.
+     *
+     * @param args command line arguments.
+     */
+    public static void main(String[] args) {
+        LoadSimulation simulation = new LoadSimulation();
+        try {
+            simulation.parseArguments(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: LoadSimulation [--players N] [--ticks N] [--warmup N] [--budget-ms MS] [--recording FILE]");
+            System.exit(2);
+        }
+
+        try {
+            simulation._recording = (simulation._recordingFile != null) ? FlightRecording.load(simulation._recordingFile)
+                                                                       : FlightRecording.scripted();
+        } catch (IOException ex) {
+            System.err.println("Unable to load recording: " + ex.getMessage());
+            System.exit(2);
+        }
+
+        boolean passed = simulation.run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse command line arguments.
+     *
+     * @param args the arguments.
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    protected void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                case "--players":
+                    _playerCount = Integer.parseInt(value);
+                    break;
+                case "--ticks":
+                    _ticks = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    _warmupTicks = Integer.parseInt(value);
+                    break;
+                case "--budget-ms":
+                    _budgetNanos = (long) (Double.parseDouble(value) * 1_000_000);
+                    break;
+                case "--recording":
+                    _recordingFile = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+        if (_playerCount < 1 || _ticks < 1 || _warmupTicks < 0 || _budgetNanos <= 0) {
+            throw new IllegalArgumentException("Counts and budget must be positive.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the warm-up and measured ticks and print the report.
+     *
+     * @return true if the tick budget was met.
+     */
+    protected boolean run() {
+        Simulation simulation = new Simulation(_playerCount);
+        SimulatedPlayer[] players = simulation.getPlayers();
+        WingCommander plugin = simulation.getPlugin();
+
+        // Events are created up front so that the harness itself does not
+        // allocate during measurement.
+        PlayerToggleSneakEvent[] crouchEvents = new PlayerToggleSneakEvent[players.length];
+        PlayerInteractEvent[] throwEvents = new PlayerInteractEvent[players.length];
+        for (int i = 0; i < players.length; ++i) {
+            crouchEvents[i] = new PlayerToggleSneakEvent(players[i].getPlayer(), true);
+            throwEvents[i] = new PlayerInteractEvent(players[i].getPlayer(), Action.LEFT_CLICK_AIR,
+                                                     players[i].getMainHand(), null, null);
+        }
+        boolean[] crouched = new boolean[players.length];
+        boolean[] threw = new boolean[players.length];
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = (threads instanceof com.sun.management.ThreadMXBean)
+            ? (com.sun.management.ThreadMXBean) threads
+            : null;
+        long threadId = Thread.currentThread().getId();
+
+        LatencyHistogram tickTimes = new LatencyHistogram("Tick");
+        long totalAllocated = 0;
+        long maxBossBarCalls = 0, maxParticleCalls = 0, maxSoundCalls = 0;
+        long bossBarCalls = 0, particleCalls = 0, soundCalls = 0;
+        int size = _recording.size();
+        for (int tick = 0; tick < _warmupTicks + _ticks; ++tick) {
+            boolean measured = (tick >= _warmupTicks);
+
+            // Apply recorded inputs to the players, outside the timed section.
+            for (int i = 0; i < players.length; ++i) {
+                SimulatedPlayer player = players[i];
+                int index = (int) ((tick + (long) i * size / players.length) % size);
+                boolean wasSneaking = player.isSneaking();
+                _recording.apply(index, player, 64 * (i % 32), 64 * (i / 32));
+                crouched[i] = !wasSneaking && player.isSneaking();
+                threw[i] = (_recording.getFlags(index) & FlightRecording.THROW_TNT) != 0;
+                if (threw[i]) {
+                    player.getMainHand().setAmount(64);
+                }
+            }
+
+            Stubs.BOSS_BAR_CALLS = Stubs.PARTICLE_CALLS = Stubs.SOUND_CALLS = 0;
+            long allocatedBefore = (allocations != null) ? allocations.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < players.length; ++i) {
+                if (crouched[i]) {
+                    plugin.onPlayerToggleSneak(crouchEvents[i]);
+                }
+                if (threw[i]) {
+                    plugin.onPlayerInteract(throwEvents[i]);
+                }
+            }
+            simulation.getRegistry().tick();
+            long elapsed = System.nanoTime() - start;
+            long allocated = (allocations != null) ? allocations.getThreadAllocatedBytes(threadId) - allocatedBefore : 0;
+
+            if (measured) {
+                tickTimes.recordNanos(elapsed);
+                totalAllocated += allocated;
+                bossBarCalls += Stubs.BOSS_BAR_CALLS;
+                particleCalls += Stubs.PARTICLE_CALLS;
+                soundCalls += Stubs.SOUND_CALLS;
+                maxBossBarCalls = Math.max(maxBossBarCalls, Stubs.BOSS_BAR_CALLS);
+                maxParticleCalls = Math.max(maxParticleCalls, Stubs.PARTICLE_CALLS);
+                maxSoundCalls = Math.max(maxSoundCalls, Stubs.SOUND_CALLS);
+            }
+        }
+
+        long p99 = tickTimes.getPercentile(99);
+        boolean passed = (p99 <= _budgetNanos);
+        System.out.println(_playerCount + " players, " + _ticks + " ticks after " + _warmupTicks + " warm-up ticks, " +
+                           "replaying " + ((_recordingFile != null) ? _recordingFile.getName() : "the scripted flight") +
+                           " (" + size + " ticks)");
+        System.out.println("Tick time: p50 " + Stats.formatMicros(tickTimes.getPercentile(50)) +
+                           ", p99 " + Stats.formatMicros(p99) +
+                           ", max " + Stats.formatMicros(tickTimes.getMax()) +
+                           ", budget " + Stats.formatMicros(_budgetNanos));
+        System.out.println("Allocated per tick: " +
+                           ((allocations != null) ? (totalAllocated / _ticks) + " bytes" : "not supported by this JVM"));
+        System.out.println(String.format("Per tick (mean/max): BossBar calls %.1f/%d, particle calls %.1f/%d, sound calls %.1f/%d",
+                                         (double) bossBarCalls / _ticks, maxBossBarCalls,
+                                         (double) particleCalls / _ticks, maxParticleCalls,
+                                         (double) soundCalls / _ticks, maxSoundCalls));
+        System.out.println(passed ? "PASSED" : "FAILED: p99 tick time exceeds the budget");
+        simulation.stop();
+        return passed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of virtual players.
+     */
+    protected int _playerCount = 500;
+
+    /**
+     * Number of measured ticks.
+     */
+    protected int _ticks = 1200;
+
+    /**
+     * Number of ticks run before measurement, to let the JIT compiler settle.
+     */
+    protected int _warmupTicks = 600;
+
+    /**
+     * Maximum acceptable 99th percentile tick time in nanoseconds.
+     */
+    protected long _budgetNanos = 5_000_000;
+
+    /**
+     * The recording file, or null to use the scripted flight.
+     */
+    protected File _recordingFile;
+
+    /**
+     * The replayed flight.
+     */
+    protected FlightRecording _recording;
+} // class LoadSimulation
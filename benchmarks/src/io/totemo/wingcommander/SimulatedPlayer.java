@@ -0,0 +1,306 @@
+package io.totemo.wingcommander;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.EntityEquipment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.util.Vector;
+
+// ----------------------------------------------------------------------------
+/**
+ * A stand-in for a Player wearing elytra, who is initially gliding and
+ * crouched.
+ *
+ * The Player interface is implemented with a dynamic proxy, since only a
+ * handful of its methods are used by the plugin. The position, look direction
+ * and velocity are plain fields that benchmarks can change between calls.
+ */
+public class SimulatedPlayer implements InvocationHandler {
+    /**
+     * Constructor.
+     *
+     * @param index a number that distinguishes this player from others.
+     * @param world the world the player is in.
+     */
+    public SimulatedPlayer(int index, World world) {
+        _uuid = new UUID(0x57434D5000000000L, index);
+        _name = "Glider" + index;
+        _world = world;
+        _x = index * 16;
+        _y = 80 + (index % 150);
+        _z = 0;
+        _yaw = (index * 37) % 360;
+        _pitch = -10;
+        _vx = 0;
+        _vy = 0;
+        _vz = 1.0;
+        _player = Stubs.proxy(Player.class, this);
+        _equipment = Stubs.proxy(EntityEquipment.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getChestplate") ? _elytra : Stubs.defaultValue(method);
+            }
+        });
+        _inventory = Stubs.proxy(PlayerInventory.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getItemInMainHand") ? _mainHand : Stubs.defaultValue(method);
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Player proxy.
+     *
+     * @return the Player proxy.
+     */
+    public Player getPlayer() {
+        return _player;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the item in the player's main hand.
+     *
+     * @return the item in the player's main hand.
+     */
+    public ItemStack getMainHand() {
+        return _mainHand;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move the player to the specified position, setting the velocity to the
+     * change in position.
+     *
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @param z the z coordinate.
+     * @param yaw the yaw in degrees.
+     * @param pitch the pitch in degrees.
+     */
+    public void moveTo(double x, double y, double z, float yaw, float pitch) {
+        _vx = x - _x;
+        _vy = y - _y;
+        _vz = z - _z;
+        _x = x;
+        _y = y;
+        _z = z;
+        _yaw = yaw;
+        _pitch = pitch;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether the player is crouching.
+     *
+     * @param sneaking true if crouching.
+     */
+    public void setSneaking(boolean sneaking) {
+        _sneaking = sneaking;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is crouching.
+     *
+     * @return true if the player is crouching.
+     */
+    public boolean isSneaking() {
+        return _sneaking;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether the player is gliding.
+     *
+     * @param gliding true if gliding.
+     */
+    public void setGliding(boolean gliding) {
+        _gliding = gliding;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether the player is standing on the ground.
+     *
+     * @param onGround true if on the ground.
+     */
+    public void setOnGround(boolean onGround) {
+        _onGround = onGround;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Advance the player one tick along its current velocity, gently varying
+     * the pitch and altitude so that gauge readings change over time.
+     */
+    public void step() {
+        _x += _vx;
+        _y += _vy;
+        _z += _vz;
+        ++_step;
+        _pitch = (float) (30 * Math.sin(_step * 0.01));
+        _vy = 0.2 * Math.sin(_step * 0.02);
+        if (_y > 250 || _y < 70) {
+            _y = 150;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "getLocation":
+            if (args == null) {
+                return new Location(_world, _x, _y, _z, _yaw, _pitch);
+            }
+            Location loc = (Location) args[0];
+            if (loc != null) {
+                loc.setWorld(_world);
+                loc.setX(_x);
+                loc.setY(_y);
+                loc.setZ(_z);
+                loc.setYaw(_yaw);
+                loc.setPitch(_pitch);
+            }
+            return loc;
+        case "getVelocity":
+            return new Vector(_vx, _vy, _vz);
+        case "setVelocity":
+            Vector velocity = (Vector) args[0];
+            _vx = velocity.getX();
+            _vy = velocity.getY();
+            _vz = velocity.getZ();
+            return null;
+        case "getWorld":
+            return _world;
+        case "getUniqueId":
+            return _uuid;
+        case "getName":
+        case "toString":
+            return _name;
+        case "isGliding":
+            return _gliding;
+        case "setGliding":
+            _gliding = (Boolean) args[0];
+            return null;
+        case "isSneaking":
+            return _sneaking;
+        case "isOnGround":
+            return _onGround;
+        case "hasPermission":
+        case "isOnline":
+            return true;
+        case "spawnParticle":
+            ++Stubs.PARTICLE_CALLS;
+            return null;
+        case "playSound":
+            ++Stubs.SOUND_CALLS;
+            return null;
+        case "getEquipment":
+            return _equipment;
+        case "getInventory":
+            return _inventory;
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        default:
+            return Stubs.defaultValue(method);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Elytra with a fixed amount of wear.
+     */
+    protected final ItemStack _elytra = new ItemStack(Material.ELYTRA) {
+        @Override
+        public short getDurability() {
+            return 100;
+        }
+    };
+
+    /**
+     * A stack of TNT, for throwing.
+     */
+    protected final ItemStack _mainHand = new ItemStack(Material.TNT, 64);
+
+    /**
+     * The Player proxy.
+     */
+    protected final Player _player;
+
+    /**
+     * The EntityEquipment proxy.
+     */
+    protected final EntityEquipment _equipment;
+
+    /**
+     * The PlayerInventory proxy.
+     */
+    protected final PlayerInventory _inventory;
+
+    /**
+     * The player's UUID.
+     */
+    protected final UUID _uuid;
+
+    /**
+     * The player's name.
+     */
+    protected final String _name;
+
+    /**
+     * The world the player is in.
+     */
+    protected final World _world;
+
+    /**
+     * Number of calls to {@link #step()}.
+     */
+    protected long _step;
+
+    /**
+     * Position.
+     */
+    protected double _x, _y, _z;
+
+    /**
+     * Look direction.
+     */
+    protected float _yaw, _pitch;
+
+    /**
+     * True if crouching.
+     */
+    protected boolean _sneaking = true;
+
+    /**
+     * True if gliding.
+     */
+    protected boolean _gliding = true;
+
+    /**
+     * True if standing on the ground.
+     */
+    protected boolean _onGround;
+
+    /**
+     * Velocity.
+     */
+    protected double _vx, _vy, _vz;
+} // class SimulatedPlayer
@@ -0,0 +1,202 @@
+package io.totemo.wingcommander;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * A WingCommander instance with a number of simulated gliding players, running
+ * outside of a server.
+ *
+ * The configuration is the default config.yml from the plugin JAR. Players'
+ * preferences are the defaults and are never written to disk. Gauge updates
+ * are computed by a {@link GaugePipeline}, as on a server, if the
+ * configuration has gauge worker threads; call {@link #stop()} to stop them.
+ */
+public class Simulation {
+    /**
+     * Constructor.
+     *
+     * @param playerCount the number of simulated players.
+     */
+    public Simulation(int playerCount) {
+        Stubs.installServer();
+        loadConfiguration();
+
+        _plugin = allocatePlugin();
+        _plugin._state = new ConcurrentHashMap<UUID, PlayerState>();
+        _plugin._gliders = _registry;
+        _registry.startPipeline(WingCommander.CONFIG.GAUGE_WORKER_THREADS);
+        _plugin._preferences = new PreferencesStore(new File("players.dat"), new File("players.yml"));
+        _plugin._leaderboards = new Leaderboards(WingCommander.LEADERBOARD_SIZE);
+        _plugin._tntBudget = new TNTBudget();
+        WingCommander.PLUGIN = _plugin;
+
+        ArrayList<Player> online = new ArrayList<Player>();
+        World world = Stubs.createWorld(online);
+        _players = new SimulatedPlayer[playerCount];
+        _states = new PlayerState[playerCount];
+        for (int i = 0; i < playerCount; ++i) {
+            SimulatedPlayer player = new SimulatedPlayer(i, world);
+            online.add(player.getPlayer());
+            // Preferences are loaded as if the player had logged in.
+            _plugin._preferences.put(player.getPlayer().getUniqueId(), PlayerPreferences.DEFAULTS);
+            PlayerState state = _plugin.getState(player.getPlayer());
+            // Skip the gauge debounce period.
+            state._gaugesPossible = true;
+            _plugin._gliders.add(state);
+            _players[i] = player;
+            _states[i] = state;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the plugin.
+     *
+     * @return the plugin.
+     */
+    public WingCommander getPlugin() {
+        return _plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the registry that ticks the simulated players.
+     *
+     * @return the registry.
+     */
+    public GliderRegistry getRegistry() {
+        return _registry;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the simulated players.
+     *
+     * @return the simulated players.
+     */
+    public SimulatedPlayer[] getPlayers() {
+        return _players;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the states of the simulated players, in the same order as
+     * {@link #getPlayers()}.
+     *
+     * @return the player states.
+     */
+    public PlayerState[] getStates() {
+        return _states;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move every player along one tick, then run the plugin's tick task.
+     */
+    public void tick() {
+        for (SimulatedPlayer player : _players) {
+            player.step();
+        }
+        _registry.tick();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the gauge worker threads.
+     */
+    public void stop() {
+        _registry.stop();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the default configuration from the plugin JAR.
+     */
+    protected static void loadConfiguration() {
+        WingCommander.CONFIG = createConfiguration();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a configuration from the default config.yml in the plugin JAR,
+     * with the specified settings changed.
+     *
+     * The result is not installed; assign it to WingCommander.CONFIG to use
+     * it.
+     *
+     * @param settings alternating setting paths and values.
+     * @return the configuration.
+     */
+    public static Configuration createConfiguration(Object... settings) {
+        try (InputStream in = WingCommander.class.getResourceAsStream("/config.yml")) {
+            if (in == null) {
+                throw new IllegalStateException("config.yml is not on the class path");
+            }
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (int i = 0; i + 1 < settings.length; i += 2) {
+                config.set((String) settings[i], settings[i + 1]);
+            }
+            return new Configuration(config, Logger.getLogger("WingCommander"));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a WingCommander instance without running its constructor.
+     *
+     * JavaPlugin's constructor requires the plugin to be loaded by a
+     * PluginClassLoader, so the instance is allocated directly instead. Only
+     * the fields used by the benchmarked code are then initialised.
+     *
+     * @return the plugin.
+     */
+    protected static WingCommander allocatePlugin() {
+        try {
+            Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method allocateInstance = unsafe.getClass().getMethod("allocateInstance", Class.class);
+            return (WingCommander) allocateInstance.invoke(unsafe, WingCommander.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Unable to create plugin instance", ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The plugin.
+     */
+    protected WingCommander _plugin;
+
+    /**
+     * The registry that ticks the simulated players, on the calling thread.
+     */
+    protected GliderRegistry _registry = new GliderRegistry();
+
+    /**
+     * The simulated players.
+     */
+    protected SimulatedPlayer[] _players;
+
+    /**
+     * The states of the simulated players.
+     */
+    protected PlayerState[] _states;
+} // class Simulation
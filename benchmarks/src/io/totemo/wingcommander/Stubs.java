@@ -0,0 +1,218 @@
+package io.totemo.wingcommander;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.boss.BossBar;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * Minimal implementations of the Bukkit interfaces used by the plugin's hot
+ * paths, so that they can be benchmarked without a server.
+ *
+ * Each stub is a dynamic proxy that implements the few methods that matter
+ * and returns zero, false or null from all others. Calls that would send
+ * packets to clients (BossBar updates, particles, sounds) do nothing, so the
+ * benchmarks measure only the plugin's own work, but they are counted.
+ *
+ * Because they are proxies, every stubbed call with arguments allocates an
+ * array for them, and every primitive result is boxed. That cost is counted
+ * in the benchmarks' time and allocation rate, though a server would not
+ * incur it; FlightBenchmark.stubBaseline() measures it for the calls made on
+ * every tick. Interfaces such as Player have hundreds of methods, so they
+ * are not implemented by plain classes.
+ *
+ * The counters are not thread-safe; simulations run on a single thread.
+ */
+public class Stubs {
+    /**
+     * Number of calls that change a BossBar.
+     */
+    public static long BOSS_BAR_CALLS;
+
+    /**
+     * Number of calls to spawnParticle() on a World or Player.
+     */
+    public static long PARTICLE_CALLS;
+
+    /**
+     * Number of calls to playSound() on a World or Player.
+     */
+    public static long SOUND_CALLS;
+
+    /**
+     * Entity ID of the most recently spawned entity. Each spawn increments
+     * it, so that spawned entities have distinct IDs.
+     */
+    public static int LAST_ENTITY_ID;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Install a stub Server as the Bukkit singleton, if not already done.
+     */
+    public static synchronized void installServer() {
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(proxy(Server.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                    case "getLogger":
+                        return LOGGER;
+                    case "getName":
+                    case "getVersion":
+                    case "getBukkitVersion":
+                        return "Benchmark";
+                    case "getOnlinePlayers":
+                        return Collections.emptyList();
+                    case "createBossBar":
+                        return createBossBar();
+                    default:
+                        return defaultValue(method);
+                    }
+                }
+            }));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a stub World full of air.
+     *
+     * @param players the list returned by World.getPlayers(); players can be
+     *        added to it later.
+     * @return the World.
+     */
+    public static World createWorld(final List<Player> players) {
+        final Block air = proxy(Block.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getType":
+                    return Material.AIR;
+                case "isPassable":
+                    return true;
+                default:
+                    return defaultValue(method);
+                }
+            }
+        });
+        // A single entity stands in for every spawned entity, without
+        // allocating, but reports the ID of the latest spawn.
+        final Entity entity = proxy(Entity.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getEntityId") ? LAST_ENTITY_ID : defaultValue(method);
+            }
+        });
+        return proxy(World.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return "world";
+                case "getBlockAt":
+                    return air;
+                case "spawnEntity":
+                    ++LAST_ENTITY_ID;
+                    return entity;
+                case "spawnParticle":
+                    ++PARTICLE_CALLS;
+                    return null;
+                case "playSound":
+                    ++SOUND_CALLS;
+                    return null;
+                case "getMaxHeight":
+                    return 256;
+                case "getPlayers":
+                    return players;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return defaultValue(method);
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a stub BossBar that counts and otherwise ignores all updates.
+     *
+     * @return the BossBar.
+     */
+    public static BossBar createBossBar() {
+        return proxy(BossBar.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.startsWith("set") || name.startsWith("add") || name.startsWith("remove")) {
+                    ++BOSS_BAR_CALLS;
+                }
+                return defaultValue(method);
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the value returned by a stub method that is not otherwise
+     * implemented: zero, false or null, according to the return type.
+     *
+     * @param method the method.
+     * @return the default value.
+     */
+    public static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else {
+            return 0.0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a dynamic proxy implementing the specified interface.
+     *
+     * @param type the interface.
+     * @param handler handles all method calls.
+     * @return the proxy.
+     */
+    protected static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Logger returned by the stub Server.
+     */
+    protected static final Logger LOGGER = Logger.getLogger("WingCommander-benchmarks");
+} // class Stubs
@@ -0,0 +1,169 @@
+package io.totemo.wingcommander;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * The special rules of airspace in all worlds: the vacuum above each world's
+ * vacuum altitude, and vacuum and no-fly {@link Zone}s.
+ *
+ * Lookups go through a per-player {@link AirspaceCache}. A lookup that misses
+ * the cache tests only the zones in the cell around the player. It records
+ * the altitudes between which the result holds throughout the player's chunk
+ * column. Until the player leaves that chunk or that altitude range, the
+ * cached result is returned without testing any zones. If a zone boundary
+ * cuts through the chunk column, the result is not cached.
+ *
+ * Airspace is immutable and is replaced when the configuration is reloaded.
+ */
+public class Airspace {
+    /**
+     * Constructor.
+     *
+     * @param vacuumEnabled if false, there is no vacuum anywhere; vacuum
+     *        altitudes and zones are ignored.
+     * @param defaultVacuumAltitude the vacuum altitude of worlds not listed in
+     *        worldVacuumAltitudes.
+     * @param worldVacuumAltitudes map from world name to vacuum altitude.
+     * @param worldZones map from world name to the zones in that world.
+     */
+    public Airspace(boolean vacuumEnabled, double defaultVacuumAltitude,
+                    Map<String, Double> worldVacuumAltitudes, Map<String, List<Zone>> worldZones) {
+        double noVacuum = Double.POSITIVE_INFINITY;
+        _default = new WorldAirspace(vacuumEnabled ? defaultVacuumAltitude : noVacuum, Collections.<Zone> emptyList());
+
+        HashMap<String, Double> altitudes = new HashMap<String, Double>(worldVacuumAltitudes);
+        for (String worldName : worldZones.keySet()) {
+            if (!altitudes.containsKey(worldName)) {
+                altitudes.put(worldName, defaultVacuumAltitude);
+            }
+        }
+        for (Entry<String, Double> entry : altitudes.entrySet()) {
+            List<Zone> zones = worldZones.get(entry.getKey());
+            if (zones == null) {
+                zones = Collections.<Zone> emptyList();
+            }
+            _worlds.put(entry.getKey(), new WorldAirspace(vacuumEnabled ? entry.getValue() : noVacuum, zones));
+        }
+        _vacuumEnabled = vacuumEnabled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return false if no position at the specified altitude can be in the
+     * vacuum.
+     *
+     * This is a cheap test to avoid looking up the player's state when they
+     * move.
+     *
+     * @param world the world.
+     * @param y the Y coordinate.
+     * @return false if there is definitely no vacuum at that altitude.
+     */
+    public boolean mayBeVacuum(World world, double y) {
+        return _vacuumEnabled && y >= getWorldAirspace(world).getLowestVacuumY();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rules that apply at the specified position.
+     *
+     * @param world the world.
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     * @param cache the cache of the player at the position.
+     * @return a combination of {@link Zone#VACUUM} and {@link Zone#NO_FLY}.
+     */
+    public int getFlags(World world, double x, double y, double z, AirspaceCache cache) {
+        int chunkX = (int) Math.floor(x) >> 4;
+        int chunkZ = (int) Math.floor(z) >> 4;
+        if (cache._airspace == this && cache._world == world &&
+            cache._chunkX == chunkX && cache._chunkZ == chunkZ &&
+            y > cache._lowY && y < cache._highY) {
+            ++WingCommander.STATS.AIRSPACE_CHECKS_SKIPPED;
+            return cache._flags;
+        }
+        ++WingCommander.STATS.AIRSPACE_CHECKS;
+
+        WorldAirspace worldAirspace = getWorldAirspace(world);
+        double lowY = Double.NEGATIVE_INFINITY;
+        double highY = Double.POSITIVE_INFINITY;
+        int flags = 0;
+        double vacuumAltitude = worldAirspace.getVacuumAltitude();
+        if (y >= vacuumAltitude) {
+            flags |= Zone.VACUUM;
+            lowY = vacuumAltitude;
+        } else {
+            highY = vacuumAltitude;
+        }
+
+        boolean uniform = true;
+        double minX = chunkX << 4;
+        double minZ = chunkZ << 4;
+        for (Zone zone : worldAirspace.getZones(chunkX, chunkZ)) {
+            if (zone.contains(x, y, z)) {
+                flags |= zone.getFlags();
+            }
+            int column = zone.compareColumn(minX, minZ, minX + 16, minZ + 16);
+            if (column == Zone.PARTIAL) {
+                uniform = false;
+            } else if (column == Zone.CONTAINS) {
+                if (y < zone.getMinY()) {
+                    highY = Math.min(highY, zone.getMinY());
+                } else if (y > zone.getMaxY()) {
+                    lowY = Math.max(lowY, zone.getMaxY());
+                } else {
+                    lowY = Math.max(lowY, zone.getMinY());
+                    highY = Math.min(highY, zone.getMaxY());
+                }
+            }
+        }
+        if (!_vacuumEnabled) {
+            flags &= ~Zone.VACUUM;
+        }
+
+        cache._airspace = uniform ? this : null;
+        cache._world = world;
+        cache._chunkX = chunkX;
+        cache._chunkZ = chunkZ;
+        cache._lowY = lowY;
+        cache._highY = highY;
+        cache._flags = flags;
+        return flags;
+    } // getFlags
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the airspace of the specified world.
+     *
+     * @param world the world.
+     * @return the airspace; never null.
+     */
+    protected WorldAirspace getWorldAirspace(World world) {
+        WorldAirspace worldAirspace = _worlds.get(world.getName());
+        return (worldAirspace != null) ? worldAirspace : _default;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * True if vacuum damage is enabled.
+     */
+    protected boolean _vacuumEnabled;
+
+    /**
+     * Airspace of worlds with no specific settings.
+     */
+    protected WorldAirspace _default;
+
+    /**
+     * Map from world name to the airspace of that world.
+     */
+    protected HashMap<String, WorldAirspace> _worlds = new HashMap<String, WorldAirspace>();
+} // class Airspace
@@ -0,0 +1,41 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * The result of a player's most recent {@link Airspace} lookup, and the range
+ * of positions over which it remains valid.
+ *
+ * The result is valid while the player stays in the same chunk column of the
+ * same world, strictly between two altitudes, and the configuration is not
+ * reloaded.
+ */
+public class AirspaceCache {
+    /**
+     * The Airspace that computed the result, or null if there is no valid
+     * result.
+     */
+    protected Airspace _airspace;
+
+    /**
+     * The world of the lookup.
+     */
+    protected World _world;
+
+    /**
+     * The chunk coordinates of the lookup.
+     */
+    protected int _chunkX, _chunkZ;
+
+    /**
+     * The result is valid for Y coordinates strictly between these values.
+     */
+    protected double _lowY, _highY;
+
+    /**
+     * The cached result: a combination of {@link Zone#VACUUM} and
+     * {@link Zone#NO_FLY}.
+     */
+    protected int _flags;
+} // class AirspaceCache
@@ -0,0 +1,111 @@
+package io.totemo.wingcommander;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.bukkit.boss.BarColor;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable map from integer value to BarColor, compiled from a set of
+ * thresholds.
+ *
+ * Below each threshold, the colour is the one associated with that threshold.
+ * Lookups do not box the key or iterate: keys within the configured range of
+ * thresholds index a flat array directly, and if that range is too large to
+ * tabulate, the thresholds are binary searched instead.
+ */
+public class BarColourMap {
+    /**
+     * Constructor.
+     *
+     * @param thresholds map from threshold to the colour used for values below
+     *        that threshold (and not below any lower threshold). The map must
+     *        contain Integer.MAX_VALUE as a key.
+     */
+    public BarColourMap(TreeMap<Integer, BarColor> thresholds) {
+        _thresholds = new int[thresholds.size()];
+        _thresholdColours = new BarColor[thresholds.size()];
+        int i = 0;
+        for (Entry<Integer, BarColor> entry : thresholds.entrySet()) {
+            _thresholds[i] = entry.getKey();
+            _thresholdColours[i] = entry.getValue();
+            ++i;
+        }
+
+        // All keys at or above the highest finite threshold take the colour
+        // of Integer.MAX_VALUE. Tabulate the keys in between the lowest and
+        // highest finite thresholds, if there aren't too many.
+        int finiteCount = _thresholds.length - 1;
+        if (finiteCount > 0) {
+            _low = _thresholds[0];
+            long range = (long) _thresholds[finiteCount - 1] - _low;
+            if (range <= MAX_TABLE_SIZE) {
+                _table = new BarColor[(int) range];
+                int threshold = 1;
+                for (int t = 0; t < _table.length; ++t) {
+                    while (_low + t >= _thresholds[threshold]) {
+                        ++threshold;
+                    }
+                    _table[t] = _thresholdColours[threshold];
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the BarColor corresponding to the specified key.
+     *
+     * Note that key does not have to exactly match one of the colour
+     * thresholds; any value below the threshold is assigned that colour.
+     *
+     * @param key the number used to look up a colour.
+     * @return the BarColor corresponding to key, or null if key is
+     *         Integer.MAX_VALUE.
+     */
+    public BarColor get(int key) {
+        if (_table != null) {
+            if (key < _low) {
+                return _thresholdColours[0];
+            }
+            long index = (long) key - _low;
+            if (index < _table.length) {
+                return _table[(int) index];
+            }
+        }
+
+        // Strictly less than the threshold: find the first threshold > key.
+        int index = Arrays.binarySearch(_thresholds, key);
+        index = (index >= 0) ? index + 1 : -index - 1;
+        return index < _thresholdColours.length ? _thresholdColours[index] : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum number of entries in the flat lookup table.
+     */
+    protected static final int MAX_TABLE_SIZE = 4096;
+
+    /**
+     * Thresholds, in ascending order, ending with Integer.MAX_VALUE.
+     */
+    protected int[] _thresholds;
+
+    /**
+     * Colours corresponding to each entry of _thresholds.
+     */
+    protected BarColor[] _thresholdColours;
+
+    /**
+     * The lowest threshold; the key corresponding to _table[0].
+     */
+    protected int _low;
+
+    /**
+     * Colours of keys from _low up to but not including the highest finite
+     * threshold, or null if the range is too large to tabulate.
+     */
+    protected BarColor[] _table;
+} // class BarColourMap
@@ -0,0 +1,221 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Predicts where TNT thrown or dropped by a player will land.
+ *
+ * Primed TNT moves under the same physics every tick: its vertical velocity
+ * is reduced by {@link #GRAVITY}, it moves by its velocity, then its velocity
+ * is scaled by {@link #DRAG}. So its displacement after n ticks is linear in
+ * its initial velocity v:
+ *
+ * <pre>
+ * dx = vx * DRAG_SUM[n]
+ * dy = vy * DRAG_SUM[n] + FALL[n]
+ * dz = vz * DRAG_SUM[n]
+ * </pre>
+ *
+ * where the tables DRAG_SUM and FALL are computed once, for every tick of the
+ * fuse. A prediction evaluates this closed form at each tick until the TNT
+ * reaches the terrain, as given by a {@link HeightCache}, or its fuse runs
+ * out. The cached heights of a chunk are only looked up when the trajectory
+ * crosses into it, so testing each tick is an array lookup.
+ *
+ * Each player has one BombSight, which is reused for every prediction.
+ */
+public class BombSight {
+    /**
+     * Downward acceleration of primed TNT, in blocks per tick per tick.
+     */
+    public static final double GRAVITY = 0.04;
+
+    /**
+     * Factor by which the velocity of primed TNT is scaled each tick.
+     */
+    public static final double DRAG = 0.98;
+
+    /**
+     * Fuse of TNT spawned by the plugin, in ticks: the longest trajectory
+     * predicted.
+     */
+    public static final int FUSE_TICKS = 80;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Predict the trajectory of TNT spawned at the specified position with the
+     * specified velocity.
+     *
+     * @param world the world.
+     * @param x the X coordinate of the spawn position.
+     * @param y the Y coordinate of the spawn position.
+     * @param z the Z coordinate of the spawn position.
+     * @param vx the X component of the initial velocity.
+     * @param vy the Y component of the initial velocity.
+     * @param vz the Z component of the initial velocity.
+     * @param heights the cache of terrain heights.
+     * @param tick the current tick number.
+     * @param lifetimeTicks the number of ticks for which heights read from
+     *        the world remain valid.
+     * @return true if the TNT hits terrain before its fuse runs out; false if
+     *         it explodes in the air or the trajectory leaves cached chunks,
+     *         which {@link #isKnown()} distinguishes.
+     */
+    public boolean solve(World world, double x, double y, double z, double vx, double vy, double vz,
+                         HeightCache heights, long tick, long lifetimeTicks) {
+        HeightChunk chunk = null;
+        int chunkX = 0;
+        int chunkZ = 0;
+        for (int n = 1; n <= FUSE_TICKS; ++n) {
+            double dragSum = DRAG_SUM[n];
+            double px = x + vx * dragSum;
+            double py = y + vy * dragSum + FALL[n];
+            double pz = z + vz * dragSum;
+            int blockX = (int) Math.floor(px);
+            int blockZ = (int) Math.floor(pz);
+            if (chunk == null || (blockX >> 4) != chunkX || (blockZ >> 4) != chunkZ) {
+                chunkX = blockX >> 4;
+                chunkZ = blockZ >> 4;
+                chunk = heights.getChunk(world, chunkX, chunkZ, tick, lifetimeTicks);
+                if (chunk == null) {
+                    return setResult(px, py, pz, n, false, false);
+                }
+            }
+            int height = chunk.getHeight(blockX, blockZ);
+            if (py <= height) {
+                return setResult(px, height, pz, n, true, true);
+            }
+        }
+        return setResult(x + vx * DRAG_SUM[FUSE_TICKS], y + vy * DRAG_SUM[FUSE_TICKS] + FALL[FUSE_TICKS],
+                         z + vz * DRAG_SUM[FUSE_TICKS], FUSE_TICKS, false, true);
+    } // solve
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the last prediction hit terrain.
+     *
+     * @return true if the last prediction hit terrain.
+     */
+    public boolean isImpact() {
+        return _impact;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the last prediction stayed within cached chunks.
+     *
+     * @return true if the last prediction stayed within cached chunks.
+     */
+    public boolean isKnown() {
+        return _known;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X coordinate of the predicted impact or explosion.
+     *
+     * @return the X coordinate.
+     */
+    public double getX() {
+        return _x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the predicted impact or explosion.
+     *
+     * @return the Y coordinate.
+     */
+    public double getY() {
+        return _y;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z coordinate of the predicted impact or explosion.
+     *
+     * @return the Z coordinate.
+     */
+    public double getZ() {
+        return _z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks until the predicted impact or explosion.
+     *
+     * @return the number of ticks.
+     */
+    public int getTicks() {
+        return _ticks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the result of a prediction.
+     *
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     * @param ticks the number of ticks.
+     * @param impact true if the TNT hits terrain.
+     * @param known true if the trajectory stayed within cached chunks.
+     * @return impact.
+     */
+    protected boolean setResult(double x, double y, double z, int ticks, boolean impact, boolean known) {
+        _x = x;
+        _y = y;
+        _z = z;
+        _ticks = ticks;
+        _impact = impact;
+        _known = known;
+        return impact;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * DRAG_SUM[n] is the displacement after n ticks per unit of initial
+     * velocity: the sum of DRAG^k for k from 0 to n - 1.
+     */
+    protected static final double[] DRAG_SUM = new double[FUSE_TICKS + 1];
+
+    /**
+     * FALL[n] is the vertical displacement after n ticks of TNT with no
+     * initial velocity.
+     */
+    protected static final double[] FALL = new double[FUSE_TICKS + 1];
+
+    static {
+        double dragPower = 1;
+        double fallVelocity = 0;
+        for (int n = 1; n <= FUSE_TICKS; ++n) {
+            DRAG_SUM[n] = DRAG_SUM[n - 1] + dragPower;
+            dragPower *= DRAG;
+
+            fallVelocity -= GRAVITY;
+            FALL[n] = FALL[n - 1] + fallVelocity;
+            fallVelocity *= DRAG;
+        }
+    }
+
+    /**
+     * Predicted coordinates.
+     */
+    protected double _x, _y, _z;
+
+    /**
+     * Predicted number of ticks.
+     */
+    protected int _ticks;
+
+    /**
+     * True if the last prediction hit terrain.
+     */
+    protected boolean _impact;
+
+    /**
+     * True if the last prediction stayed within cached chunks.
+     */
+    protected boolean _known;
+} // class BombSight
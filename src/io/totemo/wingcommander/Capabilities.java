@@ -0,0 +1,142 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+// ----------------------------------------------------------------------------
+/**
+ * The capabilities of a player, as a combination of flags, and the code that
+ * determines them.
+ *
+ * Permission and equipment checks are comparatively expensive, so a player's
+ * capabilities are cached in their {@link PlayerState} and only recomputed
+ * when something that may change them happens, and periodically in case a
+ * change was missed. Permission flags and equipment flags are recomputed
+ * separately, since equipment changes much more often.
+ */
+public class Capabilities {
+    /**
+     * Set if the player has permission for powered flight.
+     */
+    public static final int FLY = 1 << 0;
+
+    /**
+     * Set if the player has permission to see gauges.
+     */
+    public static final int GAUGE = 1 << 1;
+
+    /**
+     * Set if the player has permission to throw TNT.
+     */
+    public static final int TNT = 1 << 2;
+
+    /**
+     * Set if the player is wearing elytra, broken or not.
+     */
+    public static final int WEARING_ELYTRA = 1 << 3;
+
+    /**
+     * Set if the player is wearing elytra that are not broken.
+     */
+    public static final int UNBROKEN_ELYTRA = 1 << 4;
+
+    /**
+     * Set if the player is holding TNT in their main hand.
+     */
+    public static final int HOLDING_TNT = 1 << 5;
+
+    /**
+     * All flags determined by {@link #getPermissions(Player)}.
+     */
+    public static final int PERMISSIONS = FLY | GAUGE | TNT;
+
+    /**
+     * All flags determined by {@link #getEquipment(int)}.
+     */
+    public static final int EQUIPMENT = WEARING_ELYTRA | UNBROKEN_ELYTRA;
+
+    /**
+     * Flags that a player must have for powered flight.
+     */
+    public static final int FLIGHT_CAPABLE = FLY | WEARING_ELYTRA;
+
+    /**
+     * Elytra durability signifying that the player is not wearing elytra.
+     */
+    public static final int NO_ELYTRA = -1;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags for the permissions of the specified player.
+     *
+     * @param player the player.
+     * @return a combination of {@link #FLY}, {@link #GAUGE} and {@link #TNT}.
+     */
+    public static int getPermissions(Player player) {
+        int flags = 0;
+        if (player.hasPermission("wingcommander.fly")) {
+            flags |= FLY;
+        }
+        if (player.hasPermission("wingcommander.gauge")) {
+            flags |= GAUGE;
+        }
+        if (player.hasPermission("wingcommander.tnt")) {
+            flags |= TNT;
+        }
+        return flags;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the remaining durability of the elytra worn by the specified
+     * player.
+     *
+     * This copies the player's chestplate ItemStack, so the result should be
+     * cached.
+     *
+     * @param player the player.
+     * @return the remaining durability, or {@link #NO_ELYTRA} if the player is
+     *         not wearing elytra.
+     */
+    public static int getElytraDurability(Player player) {
+        ItemStack chest = player.getEquipment().getChestplate();
+        // On player death, chest item stack becomes null.
+        if (chest == null || chest.getType() != Material.ELYTRA) {
+            return NO_ELYTRA;
+        }
+        return Math.max(0, Material.ELYTRA.getMaxDurability() - chest.getDurability());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags for the item held in the main hand of the specified
+     * player.
+     *
+     * This copies the player's main hand ItemStack, so the result should be
+     * cached.
+     *
+     * @param player the player.
+     * @return {@link #HOLDING_TNT} or 0.
+     */
+    public static int getHeldItem(Player player) {
+        ItemStack item = player.getInventory().getItemInMainHand();
+        return (item != null && item.getType() == Material.TNT) ? HOLDING_TNT : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags for a player wearing elytra with the specified
+     * remaining durability.
+     *
+     * @param elytraDurability the remaining durability, or {@link #NO_ELYTRA}.
+     * @return a combination of {@link #WEARING_ELYTRA} and
+     *         {@link #UNBROKEN_ELYTRA}.
+     */
+    public static int getEquipment(int elytraDurability) {
+        if (elytraDurability == NO_ELYTRA) {
+            return 0;
+        }
+        return (elytraDurability > 0) ? WEARING_ELYTRA | UNBROKEN_ELYTRA : WEARING_ELYTRA;
+    }
+} // class Capabilities
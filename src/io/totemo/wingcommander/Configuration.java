@@ -1,106 +1,185 @@
 package io.totemo.wingcommander;
 
-import java.util.Map.Entry;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.logging.Logger;
 
 import org.bukkit.Particle;
 import org.bukkit.Sound;
 import org.bukkit.boss.BarColor;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
 
 // ----------------------------------------------------------------------------
 /**
- * Reads and exposes the plugin configuration.
+ * An immutable snapshot of the plugin configuration, with values derived from
+ * the settings precomputed.
+ *
+ * The current snapshot is {@link WingCommander#CONFIG}. Reloading the
+ * configuration parses and validates a new snapshot off the server thread,
+ * then replaces the reference in one step, so no code ever sees a mixture of
+ * old and new settings. Code that reads several settings in a tick should
+ * read WingCommander.CONFIG once and use that snapshot throughout.
  */
 public class Configuration {
+    /**
+     * Duration of a server tick in milliseconds.
+     */
+    public static final long MILLIS_PER_TICK = 50;
+
     /**
      * Magnitude of the vertical acceleration applied on take-off in blocks per
      * tick per tick.
      */
-    public double ACCELERATION_TAKEOFF_VERTICAL;
+    public final double ACCELERATION_TAKEOFF_VERTICAL;
 
     /**
      * Magnitude of the acceleration in the look direction applied on take-off.
      */
-    public double ACCELERATION_TAKEOFF_LOOK;
+    public final double ACCELERATION_TAKEOFF_LOOK;
 
     /**
      * Magnitude of the acceleration applied when the player crouches during
      * flight.
      */
-    public double ACCELERATION_LOOK;
+    public final double ACCELERATION_LOOK;
 
     /**
-     * Period in milliseconds for which the player's glide state will be set to
-     * true after take-off.
+     * Period in ticks for which the player's glide state will be set to true
+     * after take-off.
      */
-    public long TAKEOFF_GLIDE_MILLIS;
+    public final long TAKEOFF_GLIDE_TICKS;
 
     /**
-     * Maximum period in milliseconds between taps on the crouch key to trigger
-     * a take-off.
+     * Maximum period in ticks between taps on the crouch key to trigger a
+     * take-off.
      */
-    public long TAKEOFF_TAP_MILLIS;
+    public final long TAKEOFF_TAP_TICKS;
 
     /**
      * Maximum magnitude of the velocity vector, in blocks per tick, enforced
      * when power is applied.
      */
-    public double MAX_VELOCITY;
+    public final double MAX_VELOCITY;
+
+    /**
+     * Square of MAX_VELOCITY.
+     */
+    public final double MAX_VELOCITY_SQUARED;
+
+    /**
+     * Reciprocal of MAX_VELOCITY.
+     */
+    public final double INVERSE_MAX_VELOCITY;
 
     /**
      * In order to "debounce" gauge activation, the player must glide for at
-     * least this many milliseconds before gauges will become visible
+     * least this many ticks before gauges will become visible
      * (notwithstanding other visibility requirements).
      */
-    public long GAUGE_DEBOUNCE_MILLIS;
+    public final long GAUGE_DEBOUNCE_TICKS;
 
     /**
      * Particle type of the exhaust trail, generated when power is applied, or
      * "none" to suppress particles.
      */
-    public Particle EXHAUST_PARTICLE;
+    public final Particle EXHAUST_PARTICLE;
 
     /**
      * Maximum offset from the player position of spawned particles on all three
      * axes.
      */
-    public float EXHAUST_OFFSET;
+    public final float EXHAUST_OFFSET;
 
     /**
      * Speed of spawned particles.
      */
-    public float EXHAUST_SPEED;
+    public final float EXHAUST_SPEED;
 
     /**
      * Number of spawned particles.
      */
-    public int EXHAUST_COUNT;
+    public final int EXHAUST_COUNT;
 
     /**
      * Engine sound when power is applied, or "none" to suppress sound.
      */
-    public Sound EXHAUST_SOUND;
+    public final Sound EXHAUST_SOUND;
 
     /**
      * Volume of the engine sound.
      *
      * Sound range will be approximately this value times 15 blocks.
      */
-    public float EXHAUST_VOLUME;
+    public final float EXHAUST_VOLUME;
+
+    /**
+     * Distance from a thrusting player within which viewers receive every
+     * exhaust particle and engine sound.
+     */
+    public final double EXHAUST_NEAR_DISTANCE;
+
+    /**
+     * Distance from a thrusting player beyond which viewers receive no exhaust
+     * particles or engine sounds.
+     */
+    public final double EXHAUST_FAR_DISTANCE;
+
+    /**
+     * Square of EXHAUST_NEAR_DISTANCE.
+     */
+    public final double EXHAUST_NEAR_DISTANCE_SQUARED;
+
+    /**
+     * Square of EXHAUST_FAR_DISTANCE.
+     */
+    public final double EXHAUST_FAR_DISTANCE_SQUARED;
+
+    /**
+     * Fraction of the exhaust particles sent to viewers between the near and
+     * far distances.
+     */
+    public final double EXHAUST_FAR_PARTICLE_FRACTION;
+
+    /**
+     * Number of exhaust particles sent to distant players: EXHAUST_COUNT
+     * scaled by EXHAUST_FAR_PARTICLE_FRACTION.
+     */
+    public final int EXHAUST_FAR_COUNT;
+
+    /**
+     * Period in ticks between engine sounds sent to viewers between the near
+     * and far distances.
+     */
+    public final int EXHAUST_FAR_SOUND_PERIOD;
+
+    /**
+     * Maximum number of exhaust particle and engine sound packets sent to all
+     * players in one tick, or 0 for no limit.
+     */
+    public final int EXHAUST_PACKET_BUDGET;
 
     /**
      * Engine sound when power is applied to broken wings, or "none" to suppress
      * sound.
      */
-    public Sound BROKEN_SOUND;
+    public final Sound BROKEN_SOUND;
 
     /**
      * Volume of the broken wing sound.
      *
      * Sound range will be approximately this value times 15 blocks.
      */
-    public float BROKEN_VOLUME;
+    public final float BROKEN_VOLUME;
 
     /**
      * Allow the player to initiate 1 tick of glide by accelerating (crouching)
@@ -109,166 +188,492 @@ public class Configuration {
      * This allows a safe landing by power gliding, rather than just dropping
      * like a stone when elytra wear out.
      */
-    public boolean BROKEN_GLIDE;
+    public final boolean BROKEN_GLIDE;
 
     /**
      * Reduce fall damage by this amount for each tick that power is applied
      * while falling on broken wings, but only if BROKEN_GLIDE is true.
      */
-    public float BROKEN_GLIDE_FALL_REDUCTION;
+    public final float BROKEN_GLIDE_FALL_REDUCTION;
 
     /**
      * If true, players can use the altimeter; otherwise it is not visible for
      * anybody.
      */
-    public boolean ALTIMETER_ENABLED;
+    public final boolean ALTIMETER_ENABLED;
 
     /**
      * Altitude at which the altitude bar reads full.
      */
-    public double ALTIMETER_CEILING;
+    public final double ALTIMETER_CEILING;
+
+    /**
+     * Reciprocal of ALTIMETER_CEILING.
+     */
+    public final double INVERSE_ALTIMETER_CEILING;
 
     /**
      * Altimeter BossBar colours, indexed by the altitude threshold below which
      * they are active.
      */
-    public TreeMap<Integer, BarColor> ALTIMETER_COLOURS = new TreeMap<Integer, BarColor>();
+    public final BarColourMap ALTIMETER_COLOURS;
+
+    /**
+     * Altimeter titles, indexed by integer altitude.
+     */
+    public final TitleTable ALTIMETER_TITLES;
+
+    /**
+     * Period in ticks between altimeter updates.
+     */
+    public final int ALTIMETER_REFRESH_TICKS;
+
+    /**
+     * If true, the altimeter shows height above the terrain below the player,
+     * rather than absolute altitude.
+     */
+    public final boolean ALTIMETER_TERRAIN;
+
+    /**
+     * Altimeter BossBar colours in terrain mode, indexed by the height above
+     * terrain below which they are active.
+     */
+    public final BarColourMap ALTIMETER_TERRAIN_COLOURS;
+
+    /**
+     * Altimeter titles in terrain mode, indexed by integer height above
+     * terrain.
+     */
+    public final TitleTable ALTIMETER_TERRAIN_TITLES;
 
     /**
      * If true, players can use the speedometer; otherwise it is not visible for
      * anybody.
      */
-    public boolean SPEEDOMETER_ENABLED;
+    public final boolean SPEEDOMETER_ENABLED;
 
     /**
      * Speed above which the speedometer reads full.
      */
-    public double SPEEDOMETER_MAX;
+    public final double SPEEDOMETER_MAX;
+
+    /**
+     * Reciprocal of SPEEDOMETER_MAX.
+     */
+    public final double INVERSE_SPEEDOMETER_MAX;
 
     /**
      * Colour of the speedometer.
      */
-    public BarColor SPEEDOMETER_COLOUR;
+    public final BarColor SPEEDOMETER_COLOUR;
+
+    /**
+     * Speedometer titles, indexed by speed in tenths of a block per second.
+     */
+    public final TitleTable SPEEDOMETER_TITLES;
+
+    /**
+     * Period in ticks between speedometer updates.
+     */
+    public final int SPEEDOMETER_REFRESH_TICKS;
 
     /**
      * If true, players can use the wingometer (wing condition percentage);
      * otherwise it is not visible for anybody.
      */
-    public boolean WINGOMETER_ENABLED;
+    public final boolean WINGOMETER_ENABLED;
 
     /**
      * Wingometer BossBar colours, indexed by the percentage durability below
      * which they are active.
      */
-    public TreeMap<Integer, BarColor> WINGOMETER_COLOURS = new TreeMap<Integer, BarColor>();
+    public final BarColourMap WINGOMETER_COLOURS;
+
+    /**
+     * Wingometer titles, indexed by percentage durability.
+     */
+    public final TitleTable WINGOMETER_TITLES;
+
+    /**
+     * Period in ticks between wingometer updates.
+     */
+    public final int WINGOMETER_REFRESH_TICKS;
 
     /**
      * If true, players can use the pitch meter (nose angle in degrees, positive
      * up).
      */
-    public boolean PITCHMETER_ENABLED;
+    public final boolean PITCHMETER_ENABLED;
 
     /**
      * Pitch value for minimum pitch meter reading.
      */
-    public double PITCHMETER_MIN;
+    public final double PITCHMETER_MIN;
 
     /**
      * Pitch value for maximum pitch meter reading.
      */
-    public double PITCHMETER_MAX;
+    public final double PITCHMETER_MAX;
+
+    /**
+     * Reciprocal of the pitch span, PITCHMETER_MAX - PITCHMETER_MIN.
+     */
+    public final double INVERSE_PITCHMETER_SPAN;
 
     /**
      * Pitchmenter BossBar colours, indexed by the pitch angle in degrees below
      * which they are active.
      */
-    public TreeMap<Integer, BarColor> PITCHMETER_COLOURS = new TreeMap<Integer, BarColor>();
+    public final BarColourMap PITCHMETER_COLOURS;
+
+    /**
+     * Pitch meter titles, indexed by pitch in tenths of a degree.
+     */
+    public final TitleTable PITCHMETER_TITLES;
+
+    /**
+     * Period in ticks between pitch meter updates.
+     */
+    public final int PITCHMETER_REFRESH_TICKS;
+
+    /**
+     * If true, players holding TNT can use the bomb sight, which predicts
+     * where TNT will land.
+     */
+    public final boolean BOMBSIGHT_ENABLED;
+
+    /**
+     * If true, the bomb sight predicts thrown (left click) TNT; otherwise
+     * dropped (right click) TNT.
+     */
+    public final boolean BOMBSIGHT_THROWN;
+
+    /**
+     * Colour of the bomb sight.
+     */
+    public final BarColor BOMBSIGHT_COLOUR;
+
+    /**
+     * Period in ticks between bomb sight updates.
+     */
+    public final int BOMBSIGHT_REFRESH_TICKS;
+
+    /**
+     * Number of ticks for which cached terrain heights are used before they
+     * are read again.
+     */
+    public final int HEIGHT_CACHE_TICKS;
 
     /**
      * If true, vacuum asphyxiation damage is enabled.
      */
-    public boolean VACUUM_ENABLED;
+    public final boolean VACUUM_ENABLED;
 
     /**
      * Altitude above which the player takes asphyxiation damage due to the
-     * vacuum.
+     * vacuum, in worlds that do not have their own vacuum altitude.
      */
-    public double VACUUM_ALTITUDE;
+    public final double VACUUM_ALTITUDE;
 
     /**
      * Asphyxiation damage per tick due to the vacuum.
      */
-    public double VACUUM_DAMAGE;
+    public final double VACUUM_DAMAGE;
+
+    /**
+     * Per-world vacuum altitudes and the vacuum and no-fly zones.
+     */
+    public final Airspace AIRSPACE;
 
     /**
      * TNT throw speed from left click.
      */
-    public double TNT_THROW_SPEED;
+    public final double TNT_THROW_SPEED;
+
+    /**
+     * Number of TNT each player may throw per tick, in the long run, or 0 for
+     * no limit.
+     */
+    public final double TNT_TOKENS_PER_TICK;
+
+    /**
+     * Number of TNT each player may throw in quick succession.
+     */
+    public final double TNT_BURST;
+
+    /**
+     * Maximum number of live TNT spawned by the plugin in any one chunk, or 0
+     * for no limit.
+     */
+    public final int TNT_MAX_PER_CHUNK;
+
+    /**
+     * Maximum number of live TNT spawned by the plugin on the server, or 0 for
+     * no limit.
+     */
+    public final int TNT_MAX_LIVE;
+
+    /**
+     * Period in seconds between writes of changed player preferences to disk.
+     *
+     * This setting only takes effect when the plugin is enabled.
+     */
+    public final long PLAYERS_SAVE_SECONDS;
+
+    /**
+     * Number of worker threads that compute gauge updates; 0 to compute them
+     * on the server thread.
+     *
+     * This setting only takes effect when the plugin is enabled.
+     */
+    public final int GAUGE_WORKER_THREADS;
 
-    // ------------------------------------------------------------------------
     /**
-     * Load the plugin configuration.
+     * Period in ticks between rechecks of each ticked player's permissions and
+     * equipment, in case a change was not signalled by an event.
      */
-    public void reload() {
-        WingCommander.PLUGIN.reloadConfig();
-        ACCELERATION_TAKEOFF_VERTICAL = WingCommander.PLUGIN.getConfig().getDouble("acceleration.takeoff.vertical");
-        ACCELERATION_TAKEOFF_LOOK = WingCommander.PLUGIN.getConfig().getDouble("acceleration.takeoff.look");
-        ACCELERATION_LOOK = WingCommander.PLUGIN.getConfig().getDouble("acceleration.look");
+    public final int CAPABILITIES_RESYNC_TICKS;
 
-        TAKEOFF_GLIDE_MILLIS = WingCommander.PLUGIN.getConfig().getLong("takeoff.glide_millis");
-        TAKEOFF_TAP_MILLIS = WingCommander.PLUGIN.getConfig().getLong("takeoff.tap_millis");
+    /**
+     * If true, flights are recorded to disk.
+     */
+    public final boolean RECORDER_ENABLED;
 
-        MAX_VELOCITY = WingCommander.PLUGIN.getConfig().getDouble("max_velocity");
+    /**
+     * Maximum number of ticks of each flight that are recorded; longer flights
+     * keep only their last RECORDER_CAPACITY_TICKS ticks.
+     */
+    public final int RECORDER_CAPACITY_TICKS;
 
-        GAUGE_DEBOUNCE_MILLIS = WingCommander.PLUGIN.getConfig().getLong("gauge_debounce_millis");
+    /**
+     * Size in bytes at which a new recording file is started.
+     */
+    public final long RECORDER_FILE_BYTES;
 
-        String exhaustEffectName = WingCommander.PLUGIN.getConfig().getString("exhaust.effect");
+    /**
+     * Maximum number of recording files kept.
+     */
+    public final int RECORDER_MAX_FILES;
+
+    /**
+     * If true, the hot paths are timed for /wingcommander stats.
+     */
+    public final boolean STATS_TIMING;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the plugin's configuration file, with defaults from the plugin JAR.
+     *
+     * This only reads files and does not modify the plugin, so it is safe to
+     * call off the server thread.
+     *
+     * Unlike YamlConfiguration.loadConfiguration(), which logs errors and
+     * returns an empty configuration, this fails if the file cannot be read or
+     * parsed, so that a broken file is never mistaken for one that sets
+     * nothing.
+     *
+     * @param plugin the plugin.
+     * @return the configuration.
+     * @throws RuntimeException if the configuration cannot be loaded or is
+     *         invalid.
+     */
+    public static Configuration load(JavaPlugin plugin) {
+        File file = new File(plugin.getDataFolder(), "config.yml");
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (IOException | InvalidConfigurationException ex) {
+            throw new IllegalArgumentException("Unable to load " + file.getPath() + ": " + ex.getMessage(), ex);
+        }
+        return withDefaults(config, plugin);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the default configuration from the plugin JAR.
+     *
+     * @param plugin the plugin.
+     * @return the configuration.
+     */
+    public static Configuration loadDefaults(JavaPlugin plugin) {
+        return withDefaults(new YamlConfiguration(), plugin);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a Configuration from the specified settings, with defaults from
+     * the plugin JAR.
+     *
+     * @param config the settings.
+     * @param plugin the plugin.
+     * @return the configuration.
+     */
+    protected static Configuration withDefaults(YamlConfiguration config, JavaPlugin plugin) {
+        InputStream defaults = plugin.getResource("config.yml");
+        if (defaults != null) {
+            config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+        }
+        return new Configuration(config, plugin.getLogger());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load settings from the specified configuration.
+     *
+     * This does not depend on the plugin instance, so that the configuration
+     * can be loaded outside of a running server, e.g. in benchmarks.
+     *
+     * @param config the configuration.
+     * @param logger the logger used to report invalid settings.
+     * @throws RuntimeException if the configuration is invalid.
+     */
+    public Configuration(ConfigurationSection config, Logger logger) {
+        ACCELERATION_TAKEOFF_VERTICAL = config.getDouble("acceleration.takeoff.vertical");
+        ACCELERATION_TAKEOFF_LOOK = config.getDouble("acceleration.takeoff.look");
+        ACCELERATION_LOOK = config.getDouble("acceleration.look");
+
+        // Periods are configured in milliseconds, but measured in ticks.
+        TAKEOFF_GLIDE_TICKS = millisToTicks(config.getLong("takeoff.glide_millis"));
+        TAKEOFF_TAP_TICKS = millisToTicks(config.getLong("takeoff.tap_millis"));
+
+        MAX_VELOCITY = loadPositive(config, "max_velocity");
+        MAX_VELOCITY_SQUARED = MAX_VELOCITY * MAX_VELOCITY;
+        INVERSE_MAX_VELOCITY = 1.0 / MAX_VELOCITY;
+
+        GAUGE_DEBOUNCE_TICKS = millisToTicks(config.getLong("gauge_debounce_millis"));
+
+        EXHAUST_PARTICLE = loadParticle(config, logger, "exhaust.effect");
+        EXHAUST_OFFSET = (float) config.getDouble("exhaust.offset");
+        EXHAUST_SPEED = (float) config.getDouble("exhaust.speed");
+        EXHAUST_COUNT = config.getInt("exhaust.count");
+        EXHAUST_SOUND = loadSound(config, logger, "exhaust.sound", "exhaust sound");
+        EXHAUST_VOLUME = (float) config.getDouble("exhaust.volume");
+        EXHAUST_NEAR_DISTANCE = Math.max(0, config.getDouble("exhaust.lod.near_distance", 24));
+        EXHAUST_FAR_DISTANCE = Math.max(EXHAUST_NEAR_DISTANCE, config.getDouble("exhaust.lod.far_distance", 64));
+        EXHAUST_NEAR_DISTANCE_SQUARED = EXHAUST_NEAR_DISTANCE * EXHAUST_NEAR_DISTANCE;
+        EXHAUST_FAR_DISTANCE_SQUARED = EXHAUST_FAR_DISTANCE * EXHAUST_FAR_DISTANCE;
+        EXHAUST_FAR_PARTICLE_FRACTION = Math.min(1, Math.max(0, config.getDouble("exhaust.lod.far_particle_fraction", 0.2)));
+        EXHAUST_FAR_COUNT = (int) Math.round(EXHAUST_COUNT * EXHAUST_FAR_PARTICLE_FRACTION);
+        EXHAUST_FAR_SOUND_PERIOD = loadRefreshTicks(config, "exhaust.lod.far_sound_period");
+        EXHAUST_PACKET_BUDGET = Math.max(0, config.getInt("exhaust.packet_budget", 2000));
+
+        BROKEN_SOUND = loadSound(config, logger, "broken.sound", "broken elytra engine sound");
+        BROKEN_VOLUME = (float) config.getDouble("broken.volume");
+        BROKEN_GLIDE = config.getBoolean("broken.glide");
+        BROKEN_GLIDE_FALL_REDUCTION = (float) config.getDouble("broken.glide_fall_reduction");
+
+        ALTIMETER_ENABLED = config.getBoolean("altimeter.enabled");
+        ALTIMETER_CEILING = loadPositive(config, "altimeter.ceiling");
+        INVERSE_ALTIMETER_CEILING = 1.0 / ALTIMETER_CEILING;
+        ALTIMETER_COLOURS = loadBarColourMap(config, logger, "altimeter.colours", "altitude", BarColor.PURPLE);
+        ALTIMETER_REFRESH_TICKS = loadRefreshTicks(config, "altimeter.refresh_ticks");
+        ALTIMETER_TERRAIN = config.getBoolean("altimeter.terrain", false);
+        ALTIMETER_TERRAIN_COLOURS = loadBarColourMap(config, logger, "altimeter.terrain_colours", "height",
+                                                     BarColor.BLUE);
+
+        SPEEDOMETER_ENABLED = config.getBoolean("speedometer.enabled");
+        SPEEDOMETER_MAX = loadPositive(config, "speedometer.max");
+        INVERSE_SPEEDOMETER_MAX = 1.0 / SPEEDOMETER_MAX;
+        SPEEDOMETER_COLOUR = loadBarColor(config, logger, "speedometer.colour", "speedometer colour", BarColor.BLUE);
+        SPEEDOMETER_REFRESH_TICKS = loadRefreshTicks(config, "speedometer.refresh_ticks");
+
+        WINGOMETER_ENABLED = config.getBoolean("wingometer.enabled");
+        WINGOMETER_COLOURS = loadBarColourMap(config, logger, "wingometer.colours", "wing durability", BarColor.WHITE);
+        WINGOMETER_REFRESH_TICKS = loadRefreshTicks(config, "wingometer.refresh_ticks");
+
+        PITCHMETER_ENABLED = config.getBoolean("pitchmeter.enabled");
+        PITCHMETER_MIN = config.getDouble("pitchmeter.min");
+        PITCHMETER_MAX = config.getDouble("pitchmeter.max");
+        if (!(PITCHMETER_MAX > PITCHMETER_MIN) || Double.isInfinite(PITCHMETER_MAX - PITCHMETER_MIN)) {
+            throw new IllegalArgumentException("pitchmeter.max (" + PITCHMETER_MAX +
+                                               ") must be greater than pitchmeter.min (" + PITCHMETER_MIN + ")");
+        }
+        INVERSE_PITCHMETER_SPAN = 1.0 / (PITCHMETER_MAX - PITCHMETER_MIN);
+        PITCHMETER_COLOURS = loadBarColourMap(config, logger, "pitchmeter.colours", "pitch", BarColor.WHITE);
+        PITCHMETER_REFRESH_TICKS = loadRefreshTicks(config, "pitchmeter.refresh_ticks");
+
+        BOMBSIGHT_ENABLED = config.getBoolean("bombsight.enabled", false);
+        BOMBSIGHT_THROWN = config.getBoolean("bombsight.thrown", false);
+        BOMBSIGHT_COLOUR = loadBarColor(config, logger, "bombsight.colour", "bomb sight colour", BarColor.RED);
+        BOMBSIGHT_REFRESH_TICKS = loadRefreshTicks(config, "bombsight.refresh_ticks");
+        HEIGHT_CACHE_TICKS = Math.max(1, config.getInt("height_cache_ticks", 200));
+
+        VACUUM_ENABLED = config.getBoolean("vacuum.enabled");
+        VACUUM_ALTITUDE = config.getDouble("vacuum.altitude");
+        VACUUM_DAMAGE = config.getDouble("vacuum.damage");
+        AIRSPACE = loadAirspace(config, logger, VACUUM_ENABLED, VACUUM_ALTITUDE);
+        TNT_THROW_SPEED = config.getDouble("tnt_throw_speed");
+        TNT_TOKENS_PER_TICK = Math.max(0, config.getDouble("tnt.rate_per_second", 1)) / 20;
+        TNT_BURST = Math.max(1, config.getDouble("tnt.burst", 3));
+        TNT_MAX_PER_CHUNK = Math.max(0, config.getInt("tnt.max_per_chunk", 8));
+        TNT_MAX_LIVE = Math.max(0, config.getInt("tnt.max_live", 100));
+        PLAYERS_SAVE_SECONDS = Math.max(1, config.getLong("players.save_seconds", 30));
+        GAUGE_WORKER_THREADS = Math.max(0, config.getInt("gauge_worker_threads", 2));
+        CAPABILITIES_RESYNC_TICKS = loadRefreshTicks(config, "capabilities.resync_ticks");
+        RECORDER_ENABLED = config.getBoolean("recorder.enabled", false);
+        RECORDER_CAPACITY_TICKS = Math.max(1, config.getInt("recorder.capacity_ticks", 2400));
+        RECORDER_FILE_BYTES = 1024L * Math.max(1, config.getLong("recorder.file_kb", 4096));
+        RECORDER_MAX_FILES = Math.max(1, config.getInt("recorder.max_files", 20));
+        STATS_TIMING = config.getBoolean("stats.timing", true);
+
+        // Precompute gauge titles. Readings outside the tables are still
+        // formatted on demand. Diving players can exceed the configured
+        // maximum speed, hence the generous speed range.
+        ALTIMETER_TITLES = new TitleTable("Altitude: %d", false, 0, (int) Math.max(ALTIMETER_CEILING, VACUUM_ALTITUDE));
+        ALTIMETER_TERRAIN_TITLES = new TitleTable("Height: %d", false, 0, (int) Math.max(ALTIMETER_CEILING, VACUUM_ALTITUDE));
+        SPEEDOMETER_TITLES = new TitleTable("Speed: %3.1f", true, 0,
+            Gauge.toTenths(2 * 20 * Math.max(SPEEDOMETER_MAX, MAX_VELOCITY)));
+        WINGOMETER_TITLES = new TitleTable("Wings: %d%%", false, 0, 100);
+        PITCHMETER_TITLES = new TitleTable("Pitch: %3.1f°", true, -900, 900);
+    } // Configuration
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a particle type from the String configuration value at the given
+     * path, interpreting NONE as null.
+     *
+     * Log a warning if the particle name in the configuration is invalid.
+     *
+     * @param config the configuration.
+     * @param logger the logger used to report an invalid name.
+     * @param path the path to the configuration string.
+     * @return the Particle, or null for NONE or invalid names.
+     */
+    protected static Particle loadParticle(ConfigurationSection config, Logger logger, String path) {
+        String particleName = config.getString(path);
         try {
             // Spigot Bug: Effect.getByName() does not recognise all Effect
             // names.
-            EXHAUST_PARTICLE = exhaustEffectName.equalsIgnoreCase("NONE") ? null : Particle.valueOf(exhaustEffectName);
+            return particleName.equalsIgnoreCase("NONE") ? null : Particle.valueOf(particleName);
         } catch (IllegalArgumentException ex) {
-            WingCommander.PLUGIN.getLogger().warning("Invalid exhaust smoke effect name: \"" + exhaustEffectName + "\"");
-            EXHAUST_PARTICLE = null;
+            logger.warning("Invalid exhaust smoke effect name: \"" + particleName + "\"");
+            return null;
         }
-        EXHAUST_OFFSET = (float) WingCommander.PLUGIN.getConfig().getDouble("exhaust.offset");
-        EXHAUST_SPEED = (float) WingCommander.PLUGIN.getConfig().getDouble("exhaust.speed");
-        EXHAUST_COUNT = WingCommander.PLUGIN.getConfig().getInt("exhaust.count");
-        EXHAUST_SOUND = loadSound("exhaust.sound", "exhaust sound");
-        EXHAUST_VOLUME = (float) WingCommander.PLUGIN.getConfig().getDouble("exhaust.volume");
-
-        BROKEN_SOUND = loadSound("broken.sound", "broken elytra engine sound");
-        BROKEN_VOLUME = (float) WingCommander.PLUGIN.getConfig().getDouble("broken.volume");
-        BROKEN_GLIDE = WingCommander.PLUGIN.getConfig().getBoolean("broken.glide");
-        BROKEN_GLIDE_FALL_REDUCTION = (float) WingCommander.PLUGIN.getConfig().getDouble("broken.glide_fall_reduction");
-
-        ALTIMETER_ENABLED = WingCommander.PLUGIN.getConfig().getBoolean("altimeter.enabled");
-        ALTIMETER_CEILING = WingCommander.PLUGIN.getConfig().getDouble("altimeter.ceiling");
-        ALTIMETER_COLOURS = loadBarColourMap("altimeter.colours", "altitude", BarColor.PURPLE);
-
-        SPEEDOMETER_ENABLED = WingCommander.PLUGIN.getConfig().getBoolean("speedometer.enabled");
-        SPEEDOMETER_MAX = WingCommander.PLUGIN.getConfig().getDouble("speedometer.max");
-        String speedometerColour = WingCommander.PLUGIN.getConfig().getString("speedometer.colour");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a BarColor from the String configuration value at the given path.
+     *
+     * Log a warning if the colour name in the configuration is invalid.
+     *
+     * @param config the configuration.
+     * @param logger the logger used to report an invalid name.
+     * @param path the path to the configuration string.
+     * @param description how to describe the colour in any logged warning.
+     * @param defaultColour the colour used if the name is invalid.
+     * @return the BarColor.
+     */
+    protected static BarColor loadBarColor(ConfigurationSection config, Logger logger, String path,
+                                           String description, BarColor defaultColour) {
+        String colourName = config.getString(path);
         try {
-            SPEEDOMETER_COLOUR = BarColor.valueOf(speedometerColour);
+            return BarColor.valueOf(colourName);
         } catch (IllegalArgumentException ex) {
-            WingCommander.PLUGIN.getLogger().warning("Invalid speedometer colour: " + speedometerColour);
-            SPEEDOMETER_COLOUR = BarColor.BLUE;
+            logger.warning("Invalid " + description + ": " + colourName);
+            return defaultColour;
         }
-
-        WINGOMETER_ENABLED = WingCommander.PLUGIN.getConfig().getBoolean("wingometer.enabled");
-        WINGOMETER_COLOURS = loadBarColourMap("wingometer.colours", "wing durability", BarColor.WHITE);
-
-        PITCHMETER_ENABLED = WingCommander.PLUGIN.getConfig().getBoolean("pitchmeter.enabled");
-        PITCHMETER_MIN = WingCommander.PLUGIN.getConfig().getDouble("pitchmeter.min");
-        PITCHMETER_MAX = WingCommander.PLUGIN.getConfig().getDouble("pitchmeter.max");
-        PITCHMETER_COLOURS = loadBarColourMap("pitchmeter.colours", "pitch", BarColor.WHITE);
-
-        VACUUM_ENABLED = WingCommander.PLUGIN.getConfig().getBoolean("vacuum.enabled");
-        VACUUM_ALTITUDE = WingCommander.PLUGIN.getConfig().getDouble("vacuum.altitude");
-        VACUUM_DAMAGE = WingCommander.PLUGIN.getConfig().getDouble("vacuum.damage");
-        TNT_THROW_SPEED = WingCommander.PLUGIN.getConfig().getDouble("tnt_throw_speed");
-    } // reload
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -277,20 +682,138 @@ public class Configuration {
      *
      * Log a warning if the sound name in the configuration is invalid.
      *
+     * @param config the configuration.
+     * @param logger the logger used to report an invalid name.
      * @param path the path to the configuration string.
      * @param description how to describe the sound in any logged warning.
      * @return the Sound, or null for NONE or invalid names.
      */
-    protected Sound loadSound(String path, String description) {
-        String soundName = WingCommander.PLUGIN.getConfig().getString(path);
+    protected static Sound loadSound(ConfigurationSection config, Logger logger, String path, String description) {
+        String soundName = config.getString(path);
         try {
             return soundName.equalsIgnoreCase("NONE") ? null : Sound.valueOf(soundName);
         } catch (IllegalArgumentException ex) {
-            WingCommander.PLUGIN.getLogger().warning("Invalid " + description + " name: \"" + soundName + "\"");
+            logger.warning("Invalid " + description + " name: \"" + soundName + "\"");
             return null;
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Load the per-world vacuum altitudes and the zones.
+     *
+     * Invalid zones are logged and ignored.
+     *
+     * @param config the configuration.
+     * @param logger the logger used to report invalid settings.
+     * @param vacuumEnabled true if vacuum damage is enabled.
+     * @param vacuumAltitude the default vacuum altitude.
+     * @return the airspace.
+     */
+    protected static Airspace loadAirspace(ConfigurationSection config, Logger logger,
+                                           boolean vacuumEnabled, double vacuumAltitude) {
+        HashMap<String, Double> worldVacuumAltitudes = new HashMap<String, Double>();
+        ConfigurationSection worlds = config.getConfigurationSection("vacuum.worlds");
+        if (worlds != null) {
+            for (String worldName : worlds.getKeys(false)) {
+                worldVacuumAltitudes.put(worldName, worlds.getDouble(worldName));
+            }
+        }
+
+        HashMap<String, List<Zone>> worldZones = new HashMap<String, List<Zone>>();
+        ConfigurationSection zones = config.getConfigurationSection("zones");
+        if (zones != null) {
+            for (String name : zones.getKeys(false)) {
+                ConfigurationSection zone = zones.getConfigurationSection(name);
+                if (zone == null) {
+                    logger.warning("Invalid zone: " + name);
+                    continue;
+                }
+                String worldName = zone.getString("world");
+                if (worldName == null) {
+                    logger.warning("Zone " + name + " has no world.");
+                    continue;
+                }
+
+                String type = zone.getString("type", "");
+                int flags;
+                if (type.equalsIgnoreCase("vacuum")) {
+                    flags = Zone.VACUUM;
+                } else if (type.equalsIgnoreCase("no_fly")) {
+                    flags = Zone.NO_FLY;
+                } else {
+                    logger.warning("Invalid type for zone " + name + ": \"" + type + "\"");
+                    continue;
+                }
+
+                String shape = zone.getString("shape", "");
+                Zone loaded;
+                if (shape.equalsIgnoreCase("box")) {
+                    loaded = Zone.box(name, flags,
+                                      zone.getDouble("min_x"), zone.getDouble("min_y"), zone.getDouble("min_z"),
+                                      zone.getDouble("max_x"), zone.getDouble("max_y"), zone.getDouble("max_z"));
+                } else if (shape.equalsIgnoreCase("cylinder")) {
+                    loaded = Zone.cylinder(name, flags,
+                                           zone.getDouble("x"), zone.getDouble("z"), zone.getDouble("radius"),
+                                           zone.getDouble("min_y"), zone.getDouble("max_y"));
+                } else {
+                    logger.warning("Invalid shape for zone " + name + ": \"" + shape + "\"");
+                    continue;
+                }
+
+                List<Zone> list = worldZones.get(worldName);
+                if (list == null) {
+                    list = new ArrayList<Zone>();
+                    worldZones.put(worldName, list);
+                }
+                list.add(loaded);
+            }
+        }
+        return new Airspace(vacuumEnabled, vacuumAltitude, worldVacuumAltitudes, worldZones);
+    } // loadAirspace
+
+    // ------------------------------------------------------------------------
+    /**
+     * Convert a period in milliseconds to the nearest whole number of ticks.
+     *
+     * @param millis the period in milliseconds.
+     * @return the period in ticks, at least 0.
+     */
+    protected static long millisToTicks(long millis) {
+        return Math.max(0, (millis + MILLIS_PER_TICK / 2) / MILLIS_PER_TICK);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a refresh period in ticks, defaulting to every tick.
+     *
+     * @param config the configuration.
+     * @param path the path to the configuration integer.
+     * @return the refresh period, at least 1.
+     */
+    protected static int loadRefreshTicks(ConfigurationSection config, String path) {
+        return Math.max(1, config.getInt(path, 1));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a finite number that must be greater than zero, such as a value
+     * whose reciprocal is precomputed.
+     *
+     * @param config the configuration.
+     * @param path the path to the configuration number.
+     * @return the number.
+     * @throws IllegalArgumentException if the number is not greater than zero
+     *         or is not finite.
+     */
+    protected static double loadPositive(ConfigurationSection config, String path) {
+        double value = config.getDouble(path);
+        if (!(value > 0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(path + " must be a number greater than 0, but is " + config.get(path));
+        }
+        return value;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Load a configuration map from integer threshold to corresponding
@@ -299,28 +822,32 @@ public class Configuration {
      * Below each threshold key, the bar colour is the corresponding value.
      * Keys, though integers, must be formatted as quoted strings.
      *
+     * @param config the configuration.
+     * @param logger the logger used to report invalid entries.
      * @param path the path to the map configuration section.
      * @param description a displayable string describing what the thresholds
      *        and colours signify, e.g. "altitude".
      * @param maxColour the default colour for any values above the highest
      *        threshold listed in the configuration section.
+     * @return the compiled colour map.
      */
-    protected TreeMap<Integer, BarColor> loadBarColourMap(String path, String description, BarColor maxColour) {
+    protected static BarColourMap loadBarColourMap(ConfigurationSection config, Logger logger,
+                                                   String path, String description, BarColor maxColour) {
         TreeMap<Integer, BarColor> colours = new TreeMap<Integer, BarColor>();
         colours.put(Integer.MAX_VALUE, maxColour);
-        ConfigurationSection section = WingCommander.PLUGIN.getConfig().getConfigurationSection(path);
+        ConfigurationSection section = config.getConfigurationSection(path);
         for (String key : section.getKeys(false)) {
             String valueString = section.getString(key);
             try {
                 int value = Integer.parseInt(key);
                 colours.put(value, BarColor.valueOf(valueString));
             } catch (NumberFormatException ex) {
-                WingCommander.PLUGIN.getLogger().warning("Non-integer " + description + " value: " + key);
+                logger.warning("Non-integer " + description + " value: " + key);
             } catch (IllegalArgumentException ex) {
-                WingCommander.PLUGIN.getLogger().warning("Invalid " + description + " colour: " + valueString);
+                logger.warning("Invalid " + description + " colour: " + valueString);
             }
         }
-        return colours;
+        return new BarColourMap(colours);
     }
 
     // ------------------------------------------------------------------------
@@ -335,13 +862,8 @@ public class Configuration {
      * @param key the number used to look up a colour from the map.
      * @return the BarColor corresponding to key.
      */
-    protected BarColor getBarColor(TreeMap<Integer, BarColor> map, int key) {
-        for (Entry<Integer, BarColor> entry : map.entrySet()) {
-            if (key < entry.getKey()) {
-                return entry.getValue();
-            }
-        }
-        // Not actually reachable unless key == Integer.MAX_VALUE.
-        return null;
+    protected BarColor getBarColor(BarColourMap map, int key) {
+        // Null is not actually possible unless key == Integer.MAX_VALUE.
+        return map.get(key);
     }
 } // class Configuration
\ No newline at end of file
@@ -0,0 +1,411 @@
+package io.totemo.wingcommander;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.Sound;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * Sends exhaust particles and engine sounds to each nearby player, with level
+ * of detail by distance and a global limit on packets per tick.
+ *
+ * Emissions are queued with
+ * {@link #add(World, double, double, double, boolean, Sound, float, float, int)}
+ * and sent by {@link #flush(Configuration, long)}. Unlike World.spawnParticle() and
+ * World.playSound(), which send to every player in range, each viewer gets
+ * packets according to their distance from the emitter:
+ * <ul>
+ * <li>within the near distance, every particle and sound;</li>
+ * <li>up to the far distance, a fraction of the particles, and the sound
+ * only once per configured period;</li>
+ * <li>beyond the far distance, nothing.</li>
+ * </ul>
+ *
+ * Near viewers are served before far viewers, so when the packet budget for
+ * the tick runs out, far viewers lose detail first. The budget is shared by
+ * all emitters, so it limits the packets sent by the whole server.
+ *
+ * An emitter is only used by one thread: the server thread or, on servers
+ * with region-threaded ticking, the thread of one region. Since a region
+ * thread must not access players owned by other regions, the emitter can be
+ * given a filter that skips those viewers; players just across a region
+ * boundary then miss the exhaust of players in the neighbouring region.
+ */
+public class ExhaustEmitter {
+    /**
+     * Number of low bits of {@link #BUDGET} that count packets; the high bits
+     * hold the tick number.
+     */
+    protected static final int BUDGET_COUNT_BITS = 24;
+
+    /**
+     * Mask of the packet count in {@link #BUDGET}.
+     */
+    protected static final long BUDGET_COUNT_MASK = (1L << BUDGET_COUNT_BITS) - 1;
+
+    /**
+     * The packet budget shared by all emitters: the tick number, shifted left
+     * by {@link #BUDGET_COUNT_BITS}, combined with the number of packets sent
+     * in that tick, so that both are updated in one compare-and-set.
+     */
+    protected static final AtomicLong BUDGET = new AtomicLong();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor for an emitter that can send to every player.
+     */
+    public ExhaustEmitter() {
+        this(null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param viewerFilter accepts the players that this emitter's thread may
+     *        access, or null to accept all players.
+     */
+    public ExhaustEmitter(Predicate<Player> viewerFilter) {
+        _viewerFilter = viewerFilter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue an emission.
+     *
+     * @param world the world.
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @param z the z coordinate.
+     * @param particles if true, spawn the configured exhaust particles.
+     * @param sound the sound to play, or null for none.
+     * @param volume the sound volume.
+     * @param pitch the sound pitch.
+     * @param phase an offset added to the tick number, to spread the sounds
+     *        sent to far viewers evenly across ticks.
+     */
+    public void add(World world, double x, double y, double z,
+                    boolean particles, Sound sound, float volume, float pitch, int phase) {
+        if (!particles && sound == null) {
+            return;
+        }
+        if (_size == _worlds.length) {
+            grow();
+        }
+        int i = _size++;
+        _worlds[i] = world;
+        _x[i] = x;
+        _y[i] = y;
+        _z[i] = z;
+        _particles[i] = particles;
+        _sounds[i] = sound;
+        _volumes[i] = volume;
+        _pitches[i] = pitch;
+        _phases[i] = phase;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send all queued emissions to the players who should see or hear them.
+     *
+     * @param config the configuration snapshot of the current tick.
+     * @param tick the current tick number.
+     */
+    public void flush(Configuration config, long tick) {
+        if (_size == 0) {
+            return;
+        }
+
+        // Emissions are nearly always all in the same world. Process one world
+        // at a time, removing its emissions from the queue.
+        while (_size > 0) {
+            World world = _worlds[0];
+            int count = 0;
+            for (int i = 0; i < _size; ++i) {
+                if (_worlds[i] == world) {
+                    _order[count++] = i;
+                }
+            }
+            flushWorld(config, world, count, tick);
+
+            int kept = 0;
+            for (int i = 0; i < _size; ++i) {
+                if (_worlds[i] != world) {
+                    copy(i, kept++);
+                }
+            }
+            for (int i = kept; i < _size; ++i) {
+                _worlds[i] = null;
+                _sounds[i] = null;
+            }
+            _size = kept;
+        }
+        _location.setWorld(null);
+        _locationWorld = null;
+    } // flush
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send the emissions in one world.
+     *
+     * @param config the configuration snapshot of the current tick.
+     * @param world the world.
+     * @param count the number of emissions in the world, whose indices are
+     *        the first count elements of _order.
+     * @param tick the current tick number.
+     */
+    protected void flushWorld(Configuration config, World world, int count, long tick) {
+        List<Player> players = world.getPlayers();
+        int playerCount = players.size();
+        if (playerCount == 0) {
+            return;
+        }
+        if (_viewers.length < playerCount) {
+            int capacity = Math.max(playerCount, 2 * _viewers.length);
+            _viewers = new Player[capacity];
+            _viewerX = new double[capacity];
+            _viewerY = new double[capacity];
+            _viewerZ = new double[capacity];
+        }
+
+        // Only read the positions of players this thread may access.
+        int viewerCount = 0;
+        for (int p = 0; p < playerCount; ++p) {
+            Player player = players.get(p);
+            if (_viewerFilter != null && !_viewerFilter.test(player)) {
+                continue;
+            }
+            player.getLocation(_location);
+            int v = viewerCount++;
+            _viewers[v] = player;
+            _viewerX[v] = _location.getX();
+            _viewerY[v] = _location.getY();
+            _viewerZ[v] = _location.getZ();
+        }
+
+        double nearSquared = config.EXHAUST_NEAR_DISTANCE_SQUARED;
+        double farSquared = config.EXHAUST_FAR_DISTANCE_SQUARED;
+        int nearParticles = config.EXHAUST_COUNT;
+        int farParticles = config.EXHAUST_FAR_COUNT;
+        int farSoundPeriod = config.EXHAUST_FAR_SOUND_PERIOD;
+        int budget = config.EXHAUST_PACKET_BUDGET;
+        Particle particle = config.EXHAUST_PARTICLE;
+        double offset = config.EXHAUST_OFFSET;
+
+        // Near viewers first, then far viewers.
+        for (int pass = 0; pass < 2; ++pass) {
+            double minSquared = (pass == 0) ? -1 : nearSquared;
+            double maxSquared = (pass == 0) ? nearSquared : farSquared;
+            for (int v = 0; v < viewerCount; ++v) {
+                double vx = _viewerX[v];
+                double vy = _viewerY[v];
+                double vz = _viewerZ[v];
+                Player viewer = null;
+                for (int k = 0; k < count; ++k) {
+                    int i = _order[k];
+                    double dx = _x[i] - vx;
+                    double dy = _y[i] - vy;
+                    double dz = _z[i] - vz;
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared <= minSquared || distanceSquared > maxSquared) {
+                        continue;
+                    }
+                    if (viewer == null) {
+                        viewer = _viewers[v];
+                    }
+
+                    int particles = (pass == 0) ? nearParticles : farParticles;
+                    if (_particles[i] && particles > 0 && particle != null) {
+                        if (takePacket(budget, tick)) {
+                            viewer.spawnParticle(particle, _x[i], _y[i], _z[i], particles,
+                                                 offset, offset, offset, config.EXHAUST_SPEED);
+                            WingCommander.STATS.PARTICLES += particles;
+                        }
+                    }
+
+                    if (_sounds[i] != null && (pass == 0 || (tick + _phases[i]) % farSoundPeriod == 0)) {
+                        if (takePacket(budget, tick)) {
+                            viewer.playSound(getLocation(world, i), _sounds[i], _volumes[i], _pitches[i]);
+                            ++WingCommander.STATS.SOUNDS;
+                        }
+                    }
+                }
+            }
+        }
+        Arrays.fill(_viewers, 0, viewerCount, null);
+    } // flushWorld
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a packet against the server-wide budget for this tick.
+     *
+     * @param budget the maximum number of packets per tick, or 0 for no limit.
+     * @param tick the current tick number.
+     * @return true if the packet can be sent; false if the budget is
+     *         exhausted.
+     */
+    protected static boolean takePacket(int budget, long tick) {
+        if (budget <= 0) {
+            return true;
+        }
+        long limit = Math.min(budget, BUDGET_COUNT_MASK);
+        long tickBits = tick << BUDGET_COUNT_BITS;
+        for (;;) {
+            long state = BUDGET.get();
+            // The count starts again from zero in a new tick.
+            long packets = ((state & ~BUDGET_COUNT_MASK) == tickBits) ? state & BUDGET_COUNT_MASK : 0;
+            if (packets >= limit) {
+                ++WingCommander.STATS.EXHAUST_PACKETS_DROPPED;
+                return false;
+            }
+            if (BUDGET.compareAndSet(state, tickBits | (packets + 1))) {
+                return true;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the reused Location, set to the position of the specified
+     * emission.
+     *
+     * @param world the world of the emission.
+     * @param i the index of the emission.
+     * @return the Location.
+     */
+    protected Location getLocation(World world, int i) {
+        if (_locationWorld != world) {
+            _locationWorld = world;
+            _location.setWorld(world);
+        }
+        _location.setX(_x[i]);
+        _location.setY(_y[i]);
+        _location.setZ(_z[i]);
+        return _location;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the emission at one index to another.
+     *
+     * @param from the source index.
+     * @param to the destination index.
+     */
+    protected void copy(int from, int to) {
+        _worlds[to] = _worlds[from];
+        _x[to] = _x[from];
+        _y[to] = _y[from];
+        _z[to] = _z[from];
+        _particles[to] = _particles[from];
+        _sounds[to] = _sounds[from];
+        _volumes[to] = _volumes[from];
+        _pitches[to] = _pitches[from];
+        _phases[to] = _phases[from];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Double the capacity of the queue.
+     */
+    protected void grow() {
+        int capacity = 2 * _worlds.length;
+        _worlds = Arrays.copyOf(_worlds, capacity);
+        _x = Arrays.copyOf(_x, capacity);
+        _y = Arrays.copyOf(_y, capacity);
+        _z = Arrays.copyOf(_z, capacity);
+        _particles = Arrays.copyOf(_particles, capacity);
+        _sounds = Arrays.copyOf(_sounds, capacity);
+        _volumes = Arrays.copyOf(_volumes, capacity);
+        _pitches = Arrays.copyOf(_pitches, capacity);
+        _phases = Arrays.copyOf(_phases, capacity);
+        _order = Arrays.copyOf(_order, capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Initial capacity of the queue.
+     */
+    protected static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of queued emissions.
+     */
+    protected int _size;
+
+    /**
+     * Worlds of the emissions.
+     */
+    protected World[] _worlds = new World[INITIAL_CAPACITY];
+
+    /**
+     * Positions of the emissions.
+     */
+    protected double[] _x = new double[INITIAL_CAPACITY],
+                    _y = new double[INITIAL_CAPACITY],
+                    _z = new double[INITIAL_CAPACITY];
+
+    /**
+     * True for each emission that includes exhaust particles.
+     */
+    protected boolean[] _particles = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Sound of each emission, or null.
+     */
+    protected Sound[] _sounds = new Sound[INITIAL_CAPACITY];
+
+    /**
+     * Sound volumes.
+     */
+    protected float[] _volumes = new float[INITIAL_CAPACITY];
+
+    /**
+     * Sound pitches.
+     */
+    protected float[] _pitches = new float[INITIAL_CAPACITY];
+
+    /**
+     * Tick phase of each emission.
+     */
+    protected int[] _phases = new int[INITIAL_CAPACITY];
+
+    /**
+     * Indices of the emissions in the world being flushed.
+     */
+    protected int[] _order = new int[INITIAL_CAPACITY];
+
+    /**
+     * Accepts the players that this emitter's thread may access, or null to
+     * accept all players.
+     */
+    protected Predicate<Player> _viewerFilter;
+
+    /**
+     * The viewers in the world being flushed.
+     */
+    protected Player[] _viewers = new Player[INITIAL_CAPACITY];
+
+    /**
+     * Positions of the viewers in the world being flushed.
+     */
+    protected double[] _viewerX = new double[INITIAL_CAPACITY],
+                    _viewerY = new double[INITIAL_CAPACITY],
+                    _viewerZ = new double[INITIAL_CAPACITY];
+
+    /**
+     * Reused Location for reading viewer positions and playing sounds.
+     */
+    protected Location _location = new Location(null, 0, 0, 0);
+
+    /**
+     * The world of _location when used to play sounds.
+     */
+    protected World _locationWorld;
+} // class ExhaustEmitter
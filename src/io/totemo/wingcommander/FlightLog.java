@@ -0,0 +1,301 @@
+package io.totemo.wingcommander;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * The telemetry of one flight, from take-off to landing, recorded one sample
+ * per tick into a fixed-size ring buffer.
+ *
+ * Samples are stored in primitive arrays that are allocated once, so
+ * {@link #record(FlightSnapshot, boolean, int)} allocates nothing and costs a
+ * handful of array stores. When a flight outlasts the capacity of the buffer,
+ * the oldest samples are overwritten, keeping the end of the flight, which is
+ * where crashes and deaths happen.
+ *
+ * A log is filled on the thread that owns the player, then handed to the
+ * {@link FlightRecorder}, which writes it on its own thread and reuses it.
+ *
+ * {@link #write(DataOutputStream)} delta-encodes the samples: each value is
+ * quantised to a fixed point, and the difference from the previous sample is
+ * written as a zig-zag variable length integer, which is one or two bytes for
+ * the small changes between consecutive ticks.
+ */
+public class FlightLog {
+    /**
+     * Identifies the start of a flight in a recording file.
+     */
+    public static final int MAGIC = 0x57435246;
+
+    /**
+     * Version of the encoding written by {@link #write(DataOutputStream)}.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Sample flag: thrust was applied in the tick.
+     */
+    public static final int THRUST = 1;
+
+    /**
+     * Sample flag: the player was gliding at the end of the tick.
+     */
+    public static final int GLIDING = 2;
+
+    /**
+     * Sample flag: the player was on the ground.
+     */
+    public static final int ON_GROUND = 4;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of samples kept.
+     */
+    public FlightLog(int capacity) {
+        _capacity = capacity;
+        _ticks = new long[capacity];
+        _x = new double[capacity];
+        _y = new double[capacity];
+        _z = new double[capacity];
+        _vx = new float[capacity];
+        _vy = new float[capacity];
+        _vz = new float[capacity];
+        _yaw = new float[capacity];
+        _pitch = new float[capacity];
+        _durability = new short[capacity];
+        _flags = new byte[capacity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum number of samples kept.
+     *
+     * @return the maximum number of samples kept.
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of samples in the log.
+     *
+     * @return the number of samples in the log.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a new flight, discarding any previous samples.
+     *
+     * @param player the player.
+     * @param snapshot the player's snapshot in the first tick of the flight.
+     */
+    public void begin(Player player, FlightSnapshot snapshot) {
+        _playerId = player.getUniqueId();
+        _playerName = player.getName();
+        _worldName = snapshot.getWorld().getName();
+        _startMillis = System.currentTimeMillis();
+        _next = 0;
+        _size = 0;
+        _dropped = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record one sample, overwriting the oldest if the log is full.
+     *
+     * @param snapshot the player's snapshot at the end of the tick.
+     * @param thrust true if thrust was applied in the tick.
+     * @param durability the remaining durability of the elytra, or
+     *        {@link Capabilities#NO_ELYTRA}.
+     */
+    public void record(FlightSnapshot snapshot, boolean thrust, int durability) {
+        int i = _next;
+        _next = (i + 1 == _capacity) ? 0 : i + 1;
+        if (_size < _capacity) {
+            ++_size;
+        } else {
+            ++_dropped;
+        }
+
+        _ticks[i] = snapshot.getTick();
+        _x[i] = snapshot.getX();
+        _y[i] = snapshot.getY();
+        _z[i] = snapshot.getZ();
+        _vx[i] = (float) snapshot.getVelocityX();
+        _vy[i] = (float) snapshot.getVelocityY();
+        _vz[i] = (float) snapshot.getVelocityZ();
+        _yaw[i] = snapshot.getYaw();
+        _pitch[i] = snapshot.getPitch();
+        _durability[i] = (short) durability;
+        _flags[i] = (byte) ((thrust ? THRUST : 0) |
+                            (snapshot.isGliding() ? GLIDING : 0) |
+                            (snapshot.isOnGround() ? ON_GROUND : 0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the flight to the specified stream.
+     *
+     * The header is the magic number, version, player UUID and name, world
+     * name, wall clock time at take-off, number of samples and number of
+     * overwritten samples. Each sample is the tick number, position in
+     * thousandths of a block, velocity in ten-thousandths of a block per tick,
+     * yaw and pitch in hundredths of a degree, and durability, each as a
+     * difference from the previous sample, followed by the flags byte.
+     *
+     * @param out the stream.
+     * @throws IOException on I/O error.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(_playerId.getMostSignificantBits());
+        out.writeLong(_playerId.getLeastSignificantBits());
+        out.writeUTF(_playerName);
+        out.writeUTF(_worldName);
+        out.writeLong(_startMillis);
+        out.writeInt(_size);
+        out.writeInt(_dropped);
+
+        long tick = 0;
+        long x = 0, y = 0, z = 0;
+        long vx = 0, vy = 0, vz = 0;
+        long yaw = 0, pitch = 0;
+        long durability = 0;
+        int i = (_next - _size + _capacity) % _capacity;
+        for (int n = 0; n < _size; ++n) {
+            tick = writeDelta(out, tick, _ticks[i]);
+            x = writeDelta(out, x, Math.round(_x[i] * POSITION_SCALE));
+            y = writeDelta(out, y, Math.round(_y[i] * POSITION_SCALE));
+            z = writeDelta(out, z, Math.round(_z[i] * POSITION_SCALE));
+            vx = writeDelta(out, vx, Math.round(_vx[i] * VELOCITY_SCALE));
+            vy = writeDelta(out, vy, Math.round(_vy[i] * VELOCITY_SCALE));
+            vz = writeDelta(out, vz, Math.round(_vz[i] * VELOCITY_SCALE));
+            yaw = writeDelta(out, yaw, Math.round(_yaw[i] * ANGLE_SCALE));
+            pitch = writeDelta(out, pitch, Math.round(_pitch[i] * ANGLE_SCALE));
+            durability = writeDelta(out, durability, _durability[i]);
+            out.writeByte(_flags[i]);
+            i = (i + 1 == _capacity) ? 0 : i + 1;
+        }
+    } // write
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the difference between two values as a zig-zag encoded variable
+     * length integer: seven bits per byte, least significant first, with the
+     * top bit set on all but the last byte.
+     *
+     * @param out the stream.
+     * @param previous the previous value.
+     * @param value the new value.
+     * @return value, to become the previous value of the next call.
+     * @throws IOException on I/O error.
+     */
+    protected static long writeDelta(DataOutputStream out, long previous, long value) throws IOException {
+        long delta = value - previous;
+        long bits = (delta << 1) ^ (delta >> 63);
+        while ((bits & ~0x7FL) != 0) {
+            out.writeByte((int) (bits & 0x7F) | 0x80);
+            bits >>>= 7;
+        }
+        out.writeByte((int) bits);
+        return value;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Fixed point scale of positions: thousandths of a block.
+     */
+    protected static final double POSITION_SCALE = 1000;
+
+    /**
+     * Fixed point scale of velocities: ten-thousandths of a block per tick.
+     */
+    protected static final double VELOCITY_SCALE = 10000;
+
+    /**
+     * Fixed point scale of yaw and pitch: hundredths of a degree.
+     */
+    protected static final double ANGLE_SCALE = 100;
+
+    /**
+     * Maximum number of samples kept.
+     */
+    protected int _capacity;
+
+    /**
+     * Index at which the next sample is stored.
+     */
+    protected int _next;
+
+    /**
+     * Number of samples in the log.
+     */
+    protected int _size;
+
+    /**
+     * Number of samples overwritten because the flight outlasted the log.
+     */
+    protected int _dropped;
+
+    /**
+     * UUID of the player.
+     */
+    protected UUID _playerId;
+
+    /**
+     * Name of the player at take-off.
+     */
+    protected String _playerName;
+
+    /**
+     * Name of the world at take-off.
+     */
+    protected String _worldName;
+
+    /**
+     * Wall clock time at take-off.
+     */
+    protected long _startMillis;
+
+    /**
+     * Tick number of each sample.
+     */
+    protected long[] _ticks;
+
+    /**
+     * Player positions.
+     */
+    protected double[] _x, _y, _z;
+
+    /**
+     * Player velocities.
+     */
+    protected float[] _vx, _vy, _vz;
+
+    /**
+     * Player look directions in degrees.
+     */
+    protected float[] _yaw, _pitch;
+
+    /**
+     * Remaining elytra durability.
+     */
+    protected short[] _durability;
+
+    /**
+     * Combinations of {@link #THRUST}, {@link #GLIDING} and
+     * {@link #ON_GROUND}.
+     */
+    protected byte[] _flags;
+} // class FlightLog
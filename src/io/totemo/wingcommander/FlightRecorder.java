@@ -0,0 +1,249 @@
+package io.totemo.wingcommander;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// ----------------------------------------------------------------------------
+/**
+ * Writes finished {@link FlightLog}s to rolling, compressed recording files
+ * on a background thread.
+ *
+ * Each flight is appended to the current file as a separate GZIP member, so
+ * a file is a valid GZIP stream at all times, and decompresses to the
+ * concatenation of its flights. When the current file reaches the configured
+ * size, a new file is started, and the oldest files beyond the configured
+ * number are deleted.
+ *
+ * Logs are pooled: once written, a log is returned to the pool, to be reused
+ * by the next flight, so the ring buffers are only allocated while the number
+ * of simultaneous flights grows.
+ */
+public class FlightRecorder {
+    /**
+     * Constructor.
+     *
+     * @param directory the directory of the recording files.
+     */
+    public FlightRecorder(File directory) {
+        _directory = directory;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the background thread that writes recordings.
+     */
+    public void start() {
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, WingCommander.PLUGIN.getName() + " flight recorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write any submitted flights and stop the background thread.
+     *
+     * The caller waits a bounded time for outstanding writes to complete.
+     */
+    public void stop() {
+        if (_executor == null) {
+            return;
+        }
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                WingCommander.PLUGIN.getLogger().warning("Timed out saving flight recordings.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        _executor = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an empty log to record a flight, reusing a pooled log if
+     * possible.
+     *
+     * This may be called from any thread.
+     *
+     * @param capacity the maximum number of samples in the log.
+     * @return the log.
+     */
+    public FlightLog acquire(int capacity) {
+        FlightLog log;
+        while ((log = _pool.poll()) != null) {
+            // Logs of a capacity from an earlier configuration are discarded.
+            if (log.getCapacity() == capacity) {
+                return log;
+            }
+        }
+        return new FlightLog(capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue a finished flight to be written to disk.
+     *
+     * The caller must not use the log afterwards. This may be called from any
+     * thread.
+     *
+     * @param log the log of the flight.
+     */
+    public void submit(final FlightLog log) {
+        ExecutorService executor = _executor;
+        if (executor == null || log.size() == 0) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(log);
+                    _pool.offer(log);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Stopping. The flight is lost.
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a flight to the current recording file, then start a new file if
+     * that one is full.
+     *
+     * This runs on the background thread.
+     *
+     * @param log the log of the flight.
+     */
+    protected void write(FlightLog log) {
+        Configuration config = WingCommander.CONFIG;
+        try {
+            if (_file == null) {
+                _file = newFile(config.RECORDER_MAX_FILES);
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true))))) {
+                log.write(out);
+            }
+            if (_file.length() >= config.RECORDER_FILE_BYTES) {
+                _file = null;
+            }
+        } catch (IOException ex) {
+            WingCommander.PLUGIN.getLogger().warning("Unable to save flight recording: " + ex.getMessage());
+            _file = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new recording file, named after the current time, and delete
+     * the oldest files so that there are no more than the specified number,
+     * including the new one.
+     *
+     * Names include milliseconds, and are never reused: if a file with the
+     * name already exists, e.g. because the previous file filled up within
+     * the same millisecond, the time in the name is advanced until it is
+     * unique, so that names still sort in the order the files were created.
+     *
+     * @param maxFiles the maximum number of recording files.
+     * @return the new file.
+     * @throws IOException if the directory cannot be created.
+     */
+    protected File newFile(int maxFiles) throws IOException {
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new IOException("cannot create " + _directory.getPath());
+        }
+
+        File[] files = _directory.listFiles();
+        if (files != null) {
+            // Names sort in the order the files were created.
+            Arrays.sort(files);
+            int count = 0;
+            for (File file : files) {
+                if (file.getName().endsWith(FILE_SUFFIX)) {
+                    ++count;
+                }
+            }
+            for (int i = 0; i < files.length && count >= maxFiles; ++i) {
+                if (files[i].getName().endsWith(FILE_SUFFIX)) {
+                    if (!files[i].delete()) {
+                        WingCommander.PLUGIN.getLogger().warning("Unable to delete " + files[i].getPath());
+                    }
+                    --count;
+                }
+            }
+        }
+
+        long time = Math.max(System.currentTimeMillis(), _lastFileTime + 1);
+        File file;
+        while ((file = new File(_directory, "flights-" + _dateFormat.format(new Date(time)) + FILE_SUFFIX)).exists()) {
+            ++time;
+        }
+        _lastFileTime = time;
+        return file;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Suffix of recording file names.
+     */
+    protected static final String FILE_SUFFIX = ".wcr.gz";
+
+    /**
+     * Maximum time in seconds to wait for outstanding writes when stopping.
+     */
+    protected static final long STOP_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The directory of the recording files.
+     */
+    protected File _directory;
+
+    /**
+     * The file being appended to, or null to start a new file.
+     *
+     * Only accessed on the background thread.
+     */
+    protected File _file;
+
+    /**
+     * Formats the time in recording file names; only used on the background
+     * thread.
+     */
+    protected SimpleDateFormat _dateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS");
+
+    /**
+     * The time in the name of the most recent new file, in milliseconds since
+     * the epoch; only used on the background thread.
+     */
+    protected long _lastFileTime;
+
+    /**
+     * Writes recordings, or null if not started.
+     */
+    protected volatile ExecutorService _executor;
+
+    /**
+     * Logs that have been written and can be reused.
+     */
+    protected ConcurrentLinkedQueue<FlightLog> _pool = new ConcurrentLinkedQueue<FlightLog>();
+} // class FlightRecorder
@@ -0,0 +1,139 @@
+package io.totemo.wingcommander;
+
+import java.util.logging.Logger;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+// ----------------------------------------------------------------------------
+/**
+ * Decides when and on which thread each player's {@link PlayerState} is
+ * ticked.
+ *
+ * Two implementations exist:
+ * <ul>
+ * <li>{@link GliderRegistry}, which ticks all active players in one loop on
+ * the server thread, batching their thrust;</li>
+ * <li>{@link RegionScheduler}, which ticks each active player on the thread
+ * of the region that owns them, on servers with region-threaded ticking
+ * (Folia), so that players in different regions are ticked in parallel.</li>
+ * </ul>
+ *
+ * Either way, a player's state is only accessed on the thread that owns the
+ * player: event handlers for that player and its tick task run on the same
+ * thread.
+ */
+public abstract class FlightScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the scheduler appropriate to the server.
+     *
+     * @param logger the logger used to report which scheduler is used.
+     * @return a {@link RegionScheduler} if the server ticks regions on
+     *         separate threads, otherwise a {@link GliderRegistry}.
+     */
+    public static FlightScheduler create(Logger logger) {
+        if (RegionScheduler.isSupported()) {
+            try {
+                FlightScheduler scheduler = new RegionScheduler();
+                logger.info("Region threading detected; players will be ticked by region.");
+                return scheduler;
+            } catch (ReflectiveOperationException ex) {
+                logger.warning("Unable to use region schedulers; players will be ticked in one loop: " + ex);
+            }
+        }
+        return new GliderRegistry();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start ticking.
+     *
+     * @param plugin the plugin that owns the scheduled tasks.
+     * @param everyTick a task to run once per server tick, not associated with
+     *        any player, e.g. to trigger periodic work, or null. It must only
+     *        access player states through {@link #execute(Player, Runnable)}.
+     */
+    public abstract void start(Plugin plugin, Runnable everyTick);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop ticking and cancel all scheduled tasks.
+     */
+    public abstract void stop();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that the specified player is ticked, starting with the next tick.
+     *
+     * This must be called on the thread that owns the player.
+     *
+     * @param state the player's state.
+     */
+    public abstract void add(PlayerState state);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop ticking the specified player.
+     *
+     * @param state the player's state.
+     */
+    public abstract void remove(PlayerState state);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task that accesses the specified player or their state on the
+     * thread that owns the player.
+     *
+     * The task may run immediately, or on a later tick. It does not run if the
+     * player has left.
+     *
+     * @param player the player.
+     * @param task the task.
+     */
+    public abstract void execute(Player player, Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run a task that affects the whole server, rather than any one player,
+     * on the next tick of the server thread, or of the global region on
+     * region-threaded servers.
+     *
+     * This may be called from any thread.
+     *
+     * @param task the task.
+     */
+    public abstract void executeGlobal(Runnable task);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks since ticking started.
+     *
+     * @return the number of ticks since ticking started.
+     */
+    public abstract long getTickCount();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk is owned by the calling thread, so
+     * that it can be loaded, read or snapshotted here.
+     *
+     * @param world the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the chunk is owned by the calling thread.
+     */
+    public abstract boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the batch used to apply thrust on the calling thread.
+     *
+     * Outside of a player's tick, the batch is empty and can be used to apply
+     * thrust to individual players.
+     *
+     * @return the batch used to apply thrust.
+     */
+    public abstract ThrustBatch getThrustBatch();
+} // class FlightScheduler
@@ -0,0 +1,256 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+// ----------------------------------------------------------------------------
+/**
+ * The flight-related state of a player, captured once per tick and shared by
+ * thrust, gauges and airspace checks.
+ *
+ * Each {@link PlayerState} owns one snapshot, which is reused from tick to
+ * tick. The player's location is read into a reused Location, so capturing a
+ * snapshot allocates only the Vector returned by Player.getVelocity().
+ *
+ * When the plugin changes the player's velocity or glide state during the
+ * tick, it updates the snapshot to match, so later readers see the changes.
+ */
+public class FlightSnapshot {
+    // ------------------------------------------------------------------------
+    /**
+     * Capture the state of the specified player.
+     *
+     * @param player the player.
+     * @param tick the current tick number.
+     */
+    public void capture(Player player, long tick) {
+        player.getLocation(_location);
+        _world = _location.getWorld();
+        _x = _location.getX();
+        _y = _location.getY();
+        _z = _location.getZ();
+        _yaw = _location.getYaw();
+        _pitch = _location.getPitch();
+        Vector velocity = player.getVelocity();
+        _vx = velocity.getX();
+        _vy = velocity.getY();
+        _vz = velocity.getZ();
+        _gliding = player.isGliding();
+        _sneaking = player.isSneaking();
+        _onGround = player.isOnGround();
+        _flying = player.isFlying();
+        _tick = tick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a change to the player's velocity made during the tick.
+     *
+     * @param vx the X component.
+     * @param vy the Y component.
+     * @param vz the Z component.
+     */
+    public void setVelocity(double vx, double vy, double vz) {
+        _vx = vx;
+        _vy = vy;
+        _vz = vz;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a change to the player's glide state made during the tick.
+     *
+     * @param gliding true if gliding.
+     */
+    public void setGliding(boolean gliding) {
+        _gliding = gliding;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world.
+     *
+     * @return the world.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X coordinate.
+     *
+     * @return the X coordinate.
+     */
+    public double getX() {
+        return _x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate.
+     *
+     * @return the Y coordinate.
+     */
+    public double getY() {
+        return _y;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z coordinate.
+     *
+     * @return the Z coordinate.
+     */
+    public double getZ() {
+        return _z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the yaw in degrees.
+     *
+     * @return the yaw in degrees.
+     */
+    public float getYaw() {
+        return _yaw;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pitch in degrees, positive down.
+     *
+     * @return the pitch in degrees.
+     */
+    public float getPitch() {
+        return _pitch;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X component of the velocity.
+     *
+     * @return the X component of the velocity.
+     */
+    public double getVelocityX() {
+        return _vx;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y component of the velocity.
+     *
+     * @return the Y component of the velocity.
+     */
+    public double getVelocityY() {
+        return _vy;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z component of the velocity.
+     *
+     * @return the Z component of the velocity.
+     */
+    public double getVelocityZ() {
+        return _vz;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the speed in blocks per tick.
+     *
+     * @return the magnitude of the velocity.
+     */
+    public double getSpeed() {
+        return Math.sqrt(_vx * _vx + _vy * _vy + _vz * _vz);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is gliding.
+     *
+     * @return true if the player is gliding.
+     */
+    public boolean isGliding() {
+        return _gliding;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is crouching.
+     *
+     * @return true if the player is crouching.
+     */
+    public boolean isSneaking() {
+        return _sneaking;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is on the ground.
+     *
+     * @return true if the player is on the ground.
+     */
+    public boolean isOnGround() {
+        return _onGround;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is flying (in the creative mode sense).
+     *
+     * @return true if the player is flying.
+     */
+    public boolean isFlying() {
+        return _flying;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tick number when the snapshot was captured.
+     *
+     * @return the tick number.
+     */
+    public long getTick() {
+        return _tick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Location into which the player's location is read.
+     */
+    protected Location _location = new Location(null, 0, 0, 0);
+
+    /**
+     * The world.
+     */
+    protected World _world;
+
+    /**
+     * Position.
+     */
+    protected double _x, _y, _z;
+
+    /**
+     * Look direction in degrees.
+     */
+    protected float _yaw, _pitch;
+
+    /**
+     * Velocity in blocks per tick.
+     */
+    protected double _vx, _vy, _vz;
+
+    /**
+     * Player state flags.
+     */
+    protected boolean _gliding, _sneaking, _onGround, _flying;
+
+    /**
+     * Tick number when captured.
+     */
+    protected long _tick;
+} // class FlightSnapshot
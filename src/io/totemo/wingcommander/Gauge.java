@@ -0,0 +1,210 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.Bukkit;
+import org.bukkit.boss.BarColor;
+import org.bukkit.boss.BarStyle;
+import org.bukkit.boss.BossBar;
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * A single gauge, displayed to one player as a BossBar.
+ *
+ * The gauge remembers the colour, reading, progress and visibility that were
+ * last sent to the BossBar and only calls the corresponding BossBar setter
+ * when the displayed value would actually change, since each call can result
+ * in a packet to the client. The numbers of updates sent and skipped are
+ * counted in {@link Stats}.
+ *
+ * Readings are integers: whole units for gauges whose title shows an integer,
+ * or tenths for gauges whose title shows one decimal place. Titles are looked
+ * up in a {@link TitleTable}. Progress is snapped to the pixel resolution of
+ * the bar.
+ */
+public class Gauge {
+    /**
+     * Constructor.
+     *
+     * @param player the player who sees the gauge.
+     * @param initialTitle the title of the gauge before the first update.
+     * @param colour the initial colour of the bar.
+     * @param progress the initial progress of the bar.
+     */
+    public Gauge(Player player, String initialTitle, BarColor colour, double progress) {
+        _bossBar = Bukkit.getServer().createBossBar(initialTitle, colour, BarStyle.SEGMENTED_20);
+        _bossBar.addPlayer(player);
+        _bossBar.setProgress(progress);
+        _bossBar.setVisible(false);
+        _colour = colour;
+        _reading = Integer.MIN_VALUE;
+        _progressPixels = toPixels(progress);
+        _visible = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the gauge with the specified colour, reading and progress.
+     *
+     * @param colour the bar colour.
+     * @param titles the table of titles corresponding to readings.
+     * @param reading the reading shown in the title, in whole units or tenths
+     *        according to the title table.
+     * @param progress the fraction of the bar that is filled; clamped to [0.0,
+     *        1.0].
+     */
+    public void show(BarColor colour, TitleTable titles, int reading, double progress) {
+        // Only look up the title if it will be sent.
+        show(colour, (reading != _reading) ? titles.get(reading) : null, reading, progress);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the gauge with the specified colour, reading, title and progress.
+     *
+     * @param colour the bar colour, or null to leave it unchanged.
+     * @param title the title corresponding to the reading; only used if the
+     *        reading differs from the last one sent.
+     * @param reading the reading shown in the title.
+     * @param progress the fraction of the bar that is filled; clamped to [0.0,
+     *        1.0].
+     */
+    public void show(BarColor colour, String title, int reading, double progress) {
+        if (colour != null && colour != _colour) {
+            _colour = colour;
+            _bossBar.setColor(colour);
+            ++WingCommander.STATS.BOSS_BAR_UPDATES;
+        } else {
+            ++WingCommander.STATS.BOSS_BAR_UPDATES_SKIPPED;
+        }
+
+        if (reading != _reading) {
+            _reading = reading;
+            _bossBar.setTitle(title);
+            ++WingCommander.STATS.BOSS_BAR_UPDATES;
+        } else {
+            ++WingCommander.STATS.BOSS_BAR_UPDATES_SKIPPED;
+        }
+
+        int pixels = toPixels(progress);
+        if (pixels != _progressPixels) {
+            _progressPixels = pixels;
+            _bossBar.setProgress(pixels / (double) BAR_PIXELS);
+            ++WingCommander.STATS.BOSS_BAR_UPDATES;
+        } else {
+            ++WingCommander.STATS.BOSS_BAR_UPDATES_SKIPPED;
+        }
+
+        setVisible(true);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the gauge with the specified reading and progress, leaving the
+     * colour unchanged.
+     *
+     * @param titles the table of titles corresponding to readings.
+     * @param reading the reading shown in the title.
+     * @param progress the fraction of the bar that is filled.
+     */
+    public void show(TitleTable titles, int reading, double progress) {
+        show(_colour, titles, reading, progress);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the visibility of the gauge.
+     *
+     * @param visible true if the gauge should be visible.
+     */
+    public void setVisible(boolean visible) {
+        if (visible != _visible) {
+            _visible = visible;
+            _bossBar.setVisible(visible);
+            ++WingCommander.STATS.BOSS_BAR_UPDATES;
+        } else {
+            ++WingCommander.STATS.BOSS_BAR_UPDATES_SKIPPED;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the gauge is visible.
+     *
+     * @return true if the gauge is visible.
+     */
+    public boolean isVisible() {
+        return _visible;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the reading last shown.
+     *
+     * Callers that format titles themselves can skip formatting when the
+     * reading has not changed.
+     *
+     * @return the reading last shown.
+     */
+    public int getReading() {
+        return _reading;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the reading corresponding to a value that is displayed to one
+     * decimal place.
+     *
+     * Rounding is half away from zero, to match String.format().
+     *
+     * @param value the value.
+     * @return the value in tenths, rounded.
+     */
+    public static int toTenths(double value) {
+        return (int) (value < 0 ? -Math.floor(-value * 10 + 0.5) : Math.floor(value * 10 + 0.5));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Convert a progress fraction into the number of filled pixels of the bar,
+     * clamping the fraction to [0.0, 1.0].
+     *
+     * @param progress the progress fraction.
+     * @return the number of pixels filled.
+     */
+    protected static int toPixels(double progress) {
+        return (int) Math.round(BAR_PIXELS * Math.min(1.0, Math.max(0.0, progress)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Width of a BossBar on the client, in pixels.
+     *
+     * Progress values that differ by less than one pixel look identical.
+     */
+    protected static final int BAR_PIXELS = 182;
+
+    /**
+     * The BossBar.
+     */
+    protected BossBar _bossBar;
+
+    /**
+     * Last colour sent to the BossBar.
+     */
+    protected BarColor _colour;
+
+    /**
+     * Last reading sent to the BossBar in the title.
+     */
+    protected int _reading;
+
+    /**
+     * Last progress sent to the BossBar, in pixels.
+     */
+    protected int _progressPixels;
+
+    /**
+     * Last visibility sent to the BossBar.
+     */
+    protected boolean _visible;
+} // class Gauge
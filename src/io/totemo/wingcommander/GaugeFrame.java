@@ -0,0 +1,217 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.Material;
+import org.bukkit.boss.BarColor;
+
+// ----------------------------------------------------------------------------
+/**
+ * The gauge updates of one player in one tick, in three stages:
+ * <ol>
+ * <li>{@link #capture(Configuration, int, double)}, on the thread that owns the player,
+ * records the raw reading of each gauge that is due for an update;</li>
+ * <li>{@link #compute()}, which can run on any thread, derives the colour,
+ * title and progress of each of those gauges;</li>
+ * <li>{@link #apply()}, on the thread that owns the player, sends them to the
+ * gauges and empties the frame.</li>
+ * </ol>
+ *
+ * Each {@link PlayerState} has one frame, which is reused every tick. The
+ * stages must not overlap; {@link GaugePipeline} ensures that when compute()
+ * runs on a worker thread.
+ */
+public class GaugeFrame {
+    /**
+     * Index of the altimeter.
+     */
+    public static final int ALTIMETER = 0;
+
+    /**
+     * Index of the speedometer.
+     */
+    public static final int SPEEDOMETER = 1;
+
+    /**
+     * Index of the wingometer.
+     */
+    public static final int WINGOMETER = 2;
+
+    /**
+     * Index of the pitch meter.
+     */
+    public static final int PITCHMETER = 3;
+
+    /**
+     * Number of gauges.
+     */
+    public static final int GAUGES = 4;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param gauges the player's gauges, indexed by {@link #ALTIMETER},
+     *        {@link #SPEEDOMETER}, {@link #WINGOMETER} and {@link #PITCHMETER}.
+     */
+    public GaugeFrame(Gauge[] gauges) {
+        _gauges = gauges;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the raw reading of a gauge that is due for an update.
+     *
+     * @param config the configuration snapshot of the current tick, used to
+     *        compute the gauge.
+     * @param gauge the index of the gauge.
+     * @param value the raw reading: altitude in blocks (above the terrain if
+     *        {@link Configuration#ALTIMETER_TERRAIN}), speed in blocks per
+     *        tick, remaining elytra durability, or pitch in degrees, positive
+     *        up.
+     */
+    public void capture(Configuration config, int gauge, double value) {
+        _config = config;
+        _due[gauge] = true;
+        _values[gauge] = value;
+        _empty = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if no gauge is due for an update.
+     *
+     * @return true if no gauge is due for an update.
+     */
+    public boolean isEmpty() {
+        return _empty;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compute the colour, title and progress of each gauge that is due.
+     *
+     * This only reads the frame and the immutable configuration snapshot
+     * recorded by capture(), so it can run on a worker thread.
+     */
+    public void compute() {
+        Configuration config = _config;
+        if (_due[ALTIMETER]) {
+            double altitude = _values[ALTIMETER];
+            if (config.ALTIMETER_TERRAIN) {
+                set(ALTIMETER, config.getBarColor(config.ALTIMETER_TERRAIN_COLOURS, (int) altitude),
+                    config.ALTIMETER_TERRAIN_TITLES, (int) altitude, altitude * config.INVERSE_ALTIMETER_CEILING);
+            } else {
+                set(ALTIMETER, config.getBarColor(config.ALTIMETER_COLOURS, (int) altitude),
+                    config.ALTIMETER_TITLES, (int) altitude, altitude * config.INVERSE_ALTIMETER_CEILING);
+            }
+        }
+        if (_due[SPEEDOMETER]) {
+            double speed = _values[SPEEDOMETER];
+            // Null colour leaves the configured colour unchanged.
+            set(SPEEDOMETER, null, config.SPEEDOMETER_TITLES, Gauge.toTenths(20 * speed),
+                speed * config.INVERSE_SPEEDOMETER_MAX);
+        }
+        if (_due[WINGOMETER]) {
+            double fraction = _values[WINGOMETER] / Material.ELYTRA.getMaxDurability();
+            int percentage = (int) (100 * fraction);
+            set(WINGOMETER, config.getBarColor(config.WINGOMETER_COLOURS, percentage),
+                config.WINGOMETER_TITLES, percentage, fraction);
+        }
+        if (_due[PITCHMETER]) {
+            double pitch = _values[PITCHMETER];
+            double fraction = (pitch - config.PITCHMETER_MIN) * config.INVERSE_PITCHMETER_SPAN;
+            set(PITCHMETER, config.getBarColor(config.PITCHMETER_COLOURS, (int) pitch),
+                config.PITCHMETER_TITLES, Gauge.toTenths(pitch), fraction);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show each gauge that is due with its computed colour, title and
+     * progress, then empty the frame.
+     */
+    public void apply() {
+        for (int i = 0; i < GAUGES; ++i) {
+            if (_due[i]) {
+                _due[i] = false;
+                _gauges[i].show(_colours[i], _titles[i], _readings[i], _progress[i]);
+                _titles[i] = null;
+            }
+        }
+        _empty = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Empty the frame without updating any gauges.
+     */
+    public void clear() {
+        for (int i = 0; i < GAUGES; ++i) {
+            _due[i] = false;
+            _titles[i] = null;
+        }
+        _empty = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the computed outputs of a gauge.
+     *
+     * @param gauge the index of the gauge.
+     * @param colour the bar colour, or null to leave it unchanged.
+     * @param titles the table of titles corresponding to readings.
+     * @param reading the reading shown in the title.
+     * @param progress the fraction of the bar that is filled.
+     */
+    protected void set(int gauge, BarColor colour, TitleTable titles, int reading, double progress) {
+        _colours[gauge] = colour;
+        _readings[gauge] = reading;
+        _titles[gauge] = titles.get(reading);
+        _progress[gauge] = progress;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The gauges updated by this frame.
+     */
+    protected Gauge[] _gauges;
+
+    /**
+     * The configuration snapshot used to compute the gauges.
+     */
+    protected Configuration _config;
+
+    /**
+     * True if no gauge is due.
+     */
+    protected boolean _empty = true;
+
+    /**
+     * True for each gauge that is due for an update.
+     */
+    protected boolean[] _due = new boolean[GAUGES];
+
+    /**
+     * Raw reading of each gauge.
+     */
+    protected double[] _values = new double[GAUGES];
+
+    /**
+     * Computed colour of each gauge, or null to leave it unchanged.
+     */
+    protected BarColor[] _colours = new BarColor[GAUGES];
+
+    /**
+     * Computed reading of each gauge.
+     */
+    protected int[] _readings = new int[GAUGES];
+
+    /**
+     * Computed title of each gauge.
+     */
+    protected String[] _titles = new String[GAUGES];
+
+    /**
+     * Computed progress of each gauge.
+     */
+    protected double[] _progress = new double[GAUGES];
+} // class GaugeFrame
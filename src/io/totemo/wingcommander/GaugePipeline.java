@@ -0,0 +1,177 @@
+package io.totemo.wingcommander;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// ----------------------------------------------------------------------------
+/**
+ * Computes gauge updates on a pool of worker threads.
+ *
+ * During a tick, the server thread adds each player's captured
+ * {@link GaugeFrame} with {@link #add(GaugeFrame)}. At the end of the tick,
+ * {@link #submit()} divides them into chunks that the workers compute in
+ * parallel while the server does the rest of its tick. At the start of the
+ * next tick, {@link #apply()} waits for the workers (normally they finished
+ * long before) and applies all of the frames in one pass. So gauges are at
+ * most one tick late.
+ *
+ * The pipeline itself is only used on the server thread.
+ */
+public class GaugePipeline {
+    /**
+     * Constructor.
+     *
+     * @param threads the number of worker threads.
+     */
+    public GaugePipeline(int threads) {
+        _executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, WingCommander.PLUGIN.getName() + " gauge worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a frame to be computed after this tick.
+     *
+     * @param frame the frame, which must not be empty.
+     */
+    public void add(GaugeFrame frame) {
+        if (_pendingCount == _pending.length) {
+            _pending = Arrays.copyOf(_pending, 2 * _pending.length);
+        }
+        _pending[_pendingCount++] = frame;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start computing the frames added during this tick.
+     *
+     * {@link #apply()} must have been called since the last submit().
+     */
+    public void submit() {
+        GaugeFrame[] frames = _pending;
+        int count = _pendingCount;
+        _pending = _submitted;
+        _pendingCount = 0;
+        _submitted = frames;
+        _submittedCount = count;
+
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int first = start;
+            final int last = Math.min(count, start + CHUNK_SIZE);
+            _futures.add(_executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < last; ++i) {
+                        frames[i].compute();
+                    }
+                }
+            }));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Wait for the frames submitted in the previous tick to be computed, then
+     * apply them.
+     */
+    public void apply() {
+        if (_submittedCount == 0) {
+            return;
+        }
+
+        long start = WingCommander.STATS.start();
+        boolean failed = false;
+        for (Future<?> future : _futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            } catch (ExecutionException ex) {
+                WingCommander.PLUGIN.getLogger().warning("Error computing gauges: " + ex.getCause());
+                failed = true;
+            }
+        }
+        _futures.clear();
+
+        // If anything went wrong, skip this tick's updates rather than show
+        // partly computed ones.
+        for (int i = 0; i < _submittedCount; ++i) {
+            if (failed) {
+                _submitted[i].clear();
+            } else {
+                _submitted[i].apply();
+            }
+            _submitted[i] = null;
+        }
+        _submittedCount = 0;
+        WingCommander.STATS.GAUGE_APPLY.record(start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the worker threads, discarding any outstanding updates.
+     */
+    public void stop() {
+        _executor.shutdownNow();
+        _futures.clear();
+        Arrays.fill(_pending, null);
+        Arrays.fill(_submitted, null);
+        _pendingCount = 0;
+        _submittedCount = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of frames computed by one task.
+     *
+     * Large enough that the cost of handing a task to a worker is negligible.
+     */
+    protected static final int CHUNK_SIZE = 64;
+
+    /**
+     * Initial capacity of the frame arrays.
+     */
+    protected static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The worker threads.
+     */
+    protected ExecutorService _executor;
+
+    /**
+     * Frames added during the current tick.
+     */
+    protected GaugeFrame[] _pending = new GaugeFrame[INITIAL_CAPACITY];
+
+    /**
+     * Number of frames added during the current tick.
+     */
+    protected int _pendingCount;
+
+    /**
+     * Frames submitted at the end of the previous tick.
+     */
+    protected GaugeFrame[] _submitted = new GaugeFrame[INITIAL_CAPACITY];
+
+    /**
+     * Number of frames submitted at the end of the previous tick.
+     */
+    protected int _submittedCount;
+
+    /**
+     * Futures of the tasks computing the submitted frames.
+     */
+    protected ArrayList<Future<?>> _futures = new ArrayList<Future<?>>();
+} // class GaugePipeline
@@ -0,0 +1,259 @@
+package io.totemo.wingcommander;
+
+import java.util.ArrayList;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+// ----------------------------------------------------------------------------
+/**
+ * The set of players whose {@link PlayerState} must be ticked.
+ *
+ * Players are added to the registry by events that can put them in a state
+ * where {@link PlayerState#onTick(long, ThrustBatch)} has something to do:
+ * starting to glide, crouching, taking off, or moving above the vacuum
+ * altitude. After each tick, players for whom {@link PlayerState#needsTick()}
+ * is false are removed, so players on the ground cost nothing per tick.
+ *
+ * This is the {@link FlightScheduler} used when all players are ticked on the
+ * server thread. A registry is only used on that thread.
+ */
+public class GliderRegistry extends FlightScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#start(org.bukkit.plugin.Plugin,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void start(Plugin plugin, final Runnable everyTick) {
+        _plugin = plugin;
+        startPipeline(WingCommander.CONFIG.GAUGE_WORKER_THREADS);
+        _taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                tick();
+                if (everyTick != null) {
+                    everyTick.run();
+                }
+            }
+        }, 1, 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#stop()
+     */
+    @Override
+    public void stop() {
+        if (_taskId != -1) {
+            Bukkit.getScheduler().cancelTask(_taskId);
+            _taskId = -1;
+        }
+        if (_gauges != null) {
+            _gauges.stop();
+            _gauges = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create the {@link GaugePipeline} that computes gauge updates on worker
+     * threads, if there is not one already.
+     *
+     * This is called by {@link #start(Plugin, Runnable)}, and separately by
+     * simulations that call {@link #tick()} themselves. {@link #stop()} stops
+     * the pipeline.
+     *
+     * @param threads the number of worker threads; if 0, gauges are updated
+     *        on the server thread.
+     */
+    void startPipeline(int threads) {
+        if (_gauges == null && threads > 0) {
+            _gauges = new GaugePipeline(threads);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that the specified player is ticked, starting with the next tick.
+     *
+     * This method is safe to call from event handlers that are triggered
+     * during {@link #tick()}.
+     *
+     * @param state the player's state.
+     */
+    @Override
+    public void add(PlayerState state) {
+        if (!state._registered) {
+            state._registered = true;
+            _states.add(state);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the specified player from the registry.
+     *
+     * @param state the player's state.
+     */
+    @Override
+    public void remove(PlayerState state) {
+        if (state._registered) {
+            state._registered = false;
+            _states.remove(state);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tick all registered players and remove those that no longer need to be
+     * ticked.
+     *
+     * Gauge updates computed by workers since the previous tick are applied
+     * first. Thrust is gathered from all players and applied in one batch,
+     * then gauges and the vacuum are updated, and the new gauge updates are
+     * handed to the workers. The list is compacted in place.
+     * Players added by events fired during the tick are appended and ticked
+     * in the same tick.
+     */
+    public void tick() {
+        long start = WingCommander.STATS.start();
+        ++_tickCount;
+        if (_gauges != null) {
+            _gauges.apply();
+        }
+        for (int i = 0; i < _states.size(); ++i) {
+            _states.get(i).onTick(_tickCount, _thrust);
+        }
+        int ticked = _states.size();
+        _thrust.apply(_tickCount);
+
+        int kept = 0;
+        for (int i = 0; i < _states.size(); ++i) {
+            PlayerState state = _states.get(i);
+            if (i >= ticked) {
+                // Added by an event fired while thrust was applied.
+                state.onTick(_tickCount, _thrust);
+                _thrust.apply(_tickCount);
+            }
+            state.onTickAfterThrust(_gauges);
+            if (state.needsTick()) {
+                _states.set(kept++, state);
+            } else {
+                state._registered = false;
+            }
+        }
+
+        for (int i = _states.size() - 1; i >= kept; --i) {
+            _states.remove(i);
+        }
+        if (_gauges != null) {
+            _gauges.submit();
+        }
+        WingCommander.STATS.TICK.record(start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the task immediately, since every player is owned by the server
+     * thread.
+     *
+     * @see io.totemo.wingcommander.FlightScheduler#execute(org.bukkit.entity.Player,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void execute(Player player, Runnable task) {
+        task.run();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#executeGlobal(java.lang.Runnable)
+     */
+    @Override
+    public void executeGlobal(Runnable task) {
+        Bukkit.getScheduler().runTask(_plugin, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if called on the server thread, which owns every chunk.
+     *
+     * @see io.totemo.wingcommander.FlightScheduler#isOwnedByCurrentRegion(org.bukkit.World,
+     *      int, int)
+     */
+    @Override
+    public boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of registered players.
+     *
+     * @return the number of registered players.
+     */
+    public int size() {
+        return _states.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the batch used to apply thrust.
+     *
+     * Outside of {@link #tick()}, the batch is empty and can be used to apply
+     * thrust to individual players.
+     *
+     * @return the batch used to apply thrust.
+     */
+    @Override
+    public ThrustBatch getThrustBatch() {
+        return _thrust;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks since the plugin was enabled.
+     *
+     * @return the number of ticks since the plugin was enabled.
+     */
+    @Override
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The plugin that owns the scheduled tasks.
+     */
+    protected Plugin _plugin;
+
+    /**
+     * Pipeline that computes gauge updates on worker threads, or null to
+     * compute them in the tick.
+     */
+    protected GaugePipeline _gauges;
+
+    /**
+     * ID of the repeating task that calls {@link #tick()}, or -1 if not
+     * started.
+     */
+    protected int _taskId = -1;
+
+    /**
+     * Number of calls to {@link #tick()}.
+     */
+    protected long _tickCount;
+
+    /**
+     * States of players that are ticked.
+     */
+    protected ArrayList<PlayerState> _states = new ArrayList<PlayerState>();
+
+    /**
+     * Batch used to apply thrust.
+     */
+    protected ThrustBatch _thrust = new ThrustBatch();
+} // class GliderRegistry
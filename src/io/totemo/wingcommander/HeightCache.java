@@ -0,0 +1,335 @@
+package io.totemo.wingcommander;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+// ----------------------------------------------------------------------------
+/**
+ * A cache of the terrain height of every block column in loaded chunks.
+ *
+ * The heights of a chunk are built on a background thread from a
+ * ChunkSnapshot, which is taken when a lookup finds the chunk missing or
+ * expired, so chunks that nothing looks up are never snapshotted. The thread
+ * that takes the snapshot copies the chunk but never scans its columns, and
+ * lookups cost an array lookup rather than a block lookup or ray trace.
+ *
+ * Blocks placed and broken by players and blocks destroyed by explosions
+ * update the cache as they happen: a placed block can only raise the height
+ * of its column, and removing the highest block of a column expires the
+ * chunk so that it is rebuilt. Other terrain changes, such as flowing liquids
+ * or growing trees, are picked up when the chunk expires, so cached heights
+ * may be slightly out of date; they are good enough for readings shown to
+ * players.
+ *
+ * While a chunk is being built, lookups in it return nothing, or the expired
+ * heights if there are any. Lookups never cause chunks to be loaded or
+ * generated. On region-threaded servers, a lookup only snapshots chunks owned
+ * by the calling thread's region; chunks owned by other regions return their
+ * cached heights, if any, or nothing.
+ *
+ * Each world has its own map of chunks, so that chunks with the same
+ * coordinates in different worlds are cached independently.
+ */
+public class HeightCache {
+    /**
+     * Returned by {@link #getHeight(World, int, int, long, long)} for columns
+     * in chunks that are not cached yet.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start the background thread that builds chunk heights.
+     *
+     * @param scheduler the scheduler, which determines which chunks the
+     *        calling thread may snapshot.
+     */
+    public void start(FlightScheduler scheduler) {
+        _scheduler = scheduler;
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, WingCommander.PLUGIN.getName() + " height cache");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop the background thread, abandoning any chunks waiting to be built,
+     * and discard all cached heights.
+     */
+    public void stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+        _scheduler = null;
+        _worlds.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the top surface of the highest block in the
+     * specified column.
+     *
+     * @param world the world.
+     * @param x the block X coordinate.
+     * @param z the block Z coordinate.
+     * @param tick the current tick number.
+     * @param lifetimeTicks the number of ticks for which heights built now
+     *        remain valid.
+     * @return the height, or {@link #UNKNOWN} if the chunk is not cached.
+     */
+    public int getHeight(World world, int x, int z, long tick, long lifetimeTicks) {
+        HeightChunk chunk = getChunk(world, x >> 4, z >> 4, tick, lifetimeTicks);
+        return (chunk != null) ? chunk.getHeight(x, z) : UNKNOWN;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached heights of the specified chunk, requesting that they
+     * be built if they are missing or expired.
+     *
+     * The heights are only built if the chunk is loaded and owned by the
+     * calling thread.
+     *
+     * @param world the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param tick the current tick number.
+     * @param lifetimeTicks the number of ticks for which heights built now
+     *        remain valid.
+     * @return the heights, which may have expired, or null if they have not
+     *         been built yet.
+     */
+    public HeightChunk getChunk(World world, int chunkX, int chunkZ, long tick, long lifetimeTicks) {
+        WorldHeights worldHeights = _worlds.get(world.getUID());
+        HeightChunk chunk = (worldHeights != null) ? worldHeights._chunks.get(getKey(chunkX, chunkZ)) : null;
+        if ((chunk == null || tick >= chunk.getExpiryTick()) &&
+            isOwnedByCurrentRegion(world, chunkX, chunkZ) && world.isChunkLoaded(chunkX, chunkZ)) {
+            build(world.getChunkAt(chunkX, chunkZ), tick, lifetimeTicks);
+        }
+        return chunk;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Request that the heights of a chunk be built on the background thread.
+     *
+     * This must be called on the thread that owns the chunk. Requests for a
+     * chunk that is already waiting to be built are ignored.
+     *
+     * @param chunk the loaded chunk.
+     * @param tick the current tick number.
+     * @param lifetimeTicks the number of ticks for which the heights remain
+     *        valid.
+     */
+    public void build(Chunk chunk, long tick, long lifetimeTicks) {
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            return;
+        }
+        final WorldHeights worldHeights = getWorldHeights(chunk.getWorld());
+        final long key = getKey(chunk.getX(), chunk.getZ());
+        if (!worldHeights._pending.add(key)) {
+            return;
+        }
+
+        final HeightChunk heights = new HeightChunk(chunk.getWorld(), chunk.getX(), chunk.getZ(),
+                                                    tick + lifetimeTicks);
+        final ChunkSnapshot snapshot = chunk.getChunkSnapshot(true, false, false);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        heights.read(snapshot);
+                        if (worldHeights._chunks.size() >= MAX_CHUNKS) {
+                            worldHeights.purge();
+                        }
+                        worldHeights._chunks.put(key, heights);
+                    } finally {
+                        worldHeights._pending.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            worldHeights._pending.remove(key);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the heights of a chunk that has unloaded.
+     *
+     * @param chunk the chunk.
+     */
+    public void remove(Chunk chunk) {
+        WorldHeights worldHeights = _worlds.get(chunk.getWorld().getUID());
+        if (worldHeights != null) {
+            worldHeights._chunks.remove(getKey(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the heights of all chunks in a world that has unloaded.
+     *
+     * @param world the world.
+     */
+    public void remove(World world) {
+        _worlds.remove(world.getUID());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the cached heights when a block is placed.
+     *
+     * @param block the placed block.
+     */
+    public void onBlockPlaced(Block block) {
+        HeightChunk heights = getCached(block);
+        if (heights != null) {
+            heights.onBlockPlaced(block.getX(), block.getY(), block.getZ());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the cached heights when a block is broken or destroyed.
+     *
+     * @param block the block, which may not have been removed from the world
+     *        yet.
+     * @param tick the current tick number.
+     */
+    public void onBlockRemoved(Block block, long tick) {
+        HeightChunk heights = getCached(block);
+        if (heights != null) {
+            heights.onBlockRemoved(block.getX(), block.getY(), block.getZ(), tick);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached heights of the chunk containing a block, without
+     * requesting that they be built.
+     *
+     * @param block the block.
+     * @return the heights, or null if not cached.
+     */
+    protected HeightChunk getCached(Block block) {
+        WorldHeights worldHeights = _worlds.get(block.getWorld().getUID());
+        return (worldHeights != null) ? worldHeights._chunks.get(getKey(block.getX() >> 4, block.getZ() >> 4)) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the calling thread may snapshot the specified chunk.
+     *
+     * @param world the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if the cache is started and the chunk is owned by the
+     *         calling thread.
+     */
+    protected boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        FlightScheduler scheduler = _scheduler;
+        return scheduler != null && scheduler.isOwnedByCurrentRegion(world, chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached heights of a world, creating them if necessary.
+     *
+     * @param world the world.
+     * @return the cached heights of the world.
+     */
+    protected WorldHeights getWorldHeights(World world) {
+        WorldHeights worldHeights = _worlds.get(world.getUID());
+        if (worldHeights == null) {
+            worldHeights = new WorldHeights();
+            WorldHeights existing = _worlds.putIfAbsent(world.getUID(), worldHeights);
+            if (existing != null) {
+                worldHeights = existing;
+            }
+        }
+        return worldHeights;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of a chunk in the map of its world.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the key.
+     */
+    protected static long getKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The cached heights of one world.
+     */
+    protected static final class WorldHeights {
+        /**
+         * Remove half of the cached chunks, in no particular order.
+         *
+         * Unloaded chunks are normally removed as they unload, so this only
+         * happens if unload events were missed, or many chunks are loaded.
+         */
+        void purge() {
+            Iterator<HeightChunk> it = _chunks.values().iterator();
+            for (int i = 0; i < MAX_CHUNKS / 2 && it.hasNext(); ++i) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        /**
+         * Map from chunk key to cached heights.
+         */
+        final ConcurrentHashMap<Long, HeightChunk> _chunks = new ConcurrentHashMap<Long, HeightChunk>();
+
+        /**
+         * Keys of chunks waiting to be built.
+         */
+        final Set<Long> _pending = ConcurrentHashMap.<Long> newKeySet();
+    } // class WorldHeights
+
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum number of cached chunks in each world.
+     */
+    protected static final int MAX_CHUNKS = 16384;
+
+    /**
+     * Map from world UUID to the cached heights of that world.
+     */
+    protected ConcurrentHashMap<UUID, WorldHeights> _worlds = new ConcurrentHashMap<UUID, WorldHeights>();
+
+    /**
+     * Builds chunk heights in the background; null when stopped.
+     */
+    protected volatile ExecutorService _executor;
+
+    /**
+     * Determines which chunks the calling thread owns; null when stopped.
+     */
+    protected volatile FlightScheduler _scheduler;
+} // class HeightCache
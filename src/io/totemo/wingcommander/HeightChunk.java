@@ -0,0 +1,141 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * The terrain heights of the 16x16 block columns of one chunk, as cached by
+ * {@link HeightCache}.
+ *
+ * Heights are read from a ChunkSnapshot on the cache's worker thread, and the
+ * chunk is only published to other threads once they have been read. After
+ * that, block changes can raise a column's height or expire the whole chunk,
+ * but the heights are never scanned again; single int writes are atomic, so
+ * readers see either the old or the new height of a column.
+ */
+public class HeightChunk {
+    /**
+     * Constructor.
+     *
+     * @param world the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param expiryTick the tick from which the heights are out of date.
+     */
+    public HeightChunk(World world, int chunkX, int chunkZ, long expiryTick) {
+        _world = world;
+        _chunkX = chunkX;
+        _chunkZ = chunkZ;
+        _expiryTick = expiryTick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the heights of all columns from a snapshot of the chunk.
+     *
+     * This can run on any thread.
+     *
+     * @param snapshot the snapshot, including the height map.
+     */
+    public void read(ChunkSnapshot snapshot) {
+        for (int i = 0; i < 256; ++i) {
+            int x = i & 15;
+            int z = i >> 4;
+            // Depending on the server version, the snapshot returns the Y of
+            // the highest block or the first empty Y above it. Either way,
+            // the top surface of the highest block is the first empty Y.
+            int height = snapshot.getHighestBlockYAt(x, z);
+            if (height >= 0 && height < 256 && !snapshot.getBlockType(x, height, z).isAir()) {
+                ++height;
+            }
+            _heights[i] = height;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the heights when a block is placed.
+     *
+     * @param x the block X coordinate.
+     * @param y the block Y coordinate.
+     * @param z the block Z coordinate.
+     */
+    public void onBlockPlaced(int x, int y, int z) {
+        int i = ((z & 15) << 4) | (x & 15);
+        if (y + 1 > _heights[i]) {
+            _heights[i] = y + 1;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the heights when a block is removed.
+     *
+     * If the block was the highest in its column, the new height can only be
+     * found by reading the chunk again, so the chunk expires on the next tick.
+     *
+     * @param x the block X coordinate.
+     * @param y the block Y coordinate.
+     * @param z the block Z coordinate.
+     * @param tick the current tick number.
+     */
+    public void onBlockRemoved(int x, int y, int z, long tick) {
+        if (y + 1 >= _heights[((z & 15) << 4) | (x & 15)] && tick + 1 < _expiryTick) {
+            _expiryTick = tick + 1;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the world.
+     *
+     * @return the world.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the tick from which the heights are out of date.
+     *
+     * @return the tick from which the heights are out of date.
+     */
+    public long getExpiryTick() {
+        return _expiryTick;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the height of the specified column.
+     *
+     * @param x the block X coordinate, in this chunk.
+     * @param z the block Z coordinate, in this chunk.
+     * @return the Y coordinate of the top surface of the highest block.
+     */
+    public int getHeight(int x, int z) {
+        return _heights[((z & 15) << 4) | (x & 15)];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The world.
+     */
+    protected World _world;
+
+    /**
+     * The chunk coordinates.
+     */
+    protected int _chunkX, _chunkZ;
+
+    /**
+     * The tick from which the heights are out of date.
+     */
+    protected volatile long _expiryTick;
+
+    /**
+     * Height of each column, indexed by (z & 15) * 16 + (x & 15).
+     */
+    protected int[] _heights = new int[256];
+} // class HeightChunk
@@ -0,0 +1,181 @@
+package io.totemo.wingcommander;
+
+// ----------------------------------------------------------------------------
+/**
+ * A fixed-bucket histogram of durations in nanoseconds.
+ *
+ * Buckets are logarithmic, with four buckets per power of two, so recorded
+ * values are accurate to within 25%. Recording a value is a few arithmetic
+ * operations and an array increment, with no allocation.
+ *
+ * Histograms are not thread-safe; they are only updated and read on the
+ * server thread.
+ */
+public class LatencyHistogram {
+    /**
+     * Constructor.
+     *
+     * @param name the name of the measured code, used in reports.
+     */
+    public LatencyHistogram(String name) {
+        _name = name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the time elapsed since the specified start time.
+     *
+     * @param start the start time from {@link Stats#start()}; if 0, timing is
+     *        disabled and nothing is recorded.
+     */
+    public void record(long start) {
+        if (start != 0) {
+            recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        ++_buckets[bucketIndex(nanos)];
+        ++_count;
+        if (nanos > _max) {
+            _max = nanos;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < _buckets.length; ++i) {
+            _buckets[i] = 0;
+        }
+        _count = 0;
+        _max = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the measured code.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the largest recorded value.
+     *
+     * @return the largest recorded value in nanoseconds.
+     */
+    public long getMax() {
+        return _max;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an upper bound on the specified percentile of recorded values.
+     *
+     * @param percentile the percentile, in [0, 100].
+     * @return the upper bound of the bucket containing the percentile, in
+     *         nanoseconds, but no more than the largest recorded value.
+     */
+    public long getPercentile(double percentile) {
+        if (_count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(_count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < _buckets.length; ++i) {
+            seen += _buckets[i];
+            if (seen >= rank && seen > 0) {
+                return (i + 1 < BUCKETS) ? Math.min(_max, bucketLowerBound(i + 1) - 1) : _max;
+            }
+        }
+        return _max;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the bucket containing the specified value.
+     *
+     * @param nanos the non-negative value.
+     * @return the bucket index.
+     */
+    protected static int bucketIndex(long nanos) {
+        if (nanos < LINEAR_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - 2)) & 3;
+        return LINEAR_BUCKETS + 4 * (exponent - 3) + sub;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the smallest value in the specified bucket.
+     *
+     * @param index the bucket index.
+     * @return the smallest value in the bucket.
+     */
+    protected static long bucketLowerBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / 4 + 3;
+        int sub = (index - LINEAR_BUCKETS) % 4;
+        return (long) (4 + sub) << (exponent - 2);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of buckets that hold exactly one value each.
+     */
+    protected static final int LINEAR_BUCKETS = 8;
+
+    /**
+     * Total number of buckets: enough for any non-negative long.
+     */
+    protected static final int BUCKETS = LINEAR_BUCKETS + 4 * (63 - 3);
+
+    /**
+     * Name of the measured code.
+     */
+    protected String _name;
+
+    /**
+     * Number of values in each bucket.
+     */
+    protected long[] _buckets = new long[BUCKETS];
+
+    /**
+     * Number of recorded values.
+     */
+    protected long _count;
+
+    /**
+     * Largest recorded value.
+     */
+    protected long _max;
+} // class LatencyHistogram
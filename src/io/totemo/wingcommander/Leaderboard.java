@@ -0,0 +1,110 @@
+package io.totemo.wingcommander;
+
+// ----------------------------------------------------------------------------
+/**
+ * The top K players by one of the values in {@link PilotStats}, kept sorted
+ * in descending order.
+ *
+ * Values are offered when each flight ends. Since a player's values never
+ * decrease, an offered value can only move its player up the board, so an
+ * offer costs O(K): find the player's existing entry, if any, then move it up
+ * past entries with lower values. A query copies the K entries.
+ *
+ * A leaderboard is synchronized, since on region-threaded servers, flights
+ * end on many threads.
+ */
+public class Leaderboard {
+    /**
+     * Constructor.
+     *
+     * @param index the index of the ranked value in {@link PilotStats}.
+     * @param size the number of entries, K.
+     */
+    public Leaderboard(int index, int size) {
+        _index = index;
+        _pilots = new PilotStats[size];
+        _values = new double[size];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the board with a player's current value.
+     *
+     * @param pilot the player's statistics.
+     */
+    public synchronized void offer(PilotStats pilot) {
+        double value = pilot.get(_index);
+        if (value <= 0) {
+            return;
+        }
+
+        int i = 0;
+        while (i < _size && _pilots[i] != pilot) {
+            ++i;
+        }
+        if (i == _size) {
+            if (_size < _pilots.length) {
+                ++_size;
+            } else if (value > _values[_size - 1]) {
+                i = _size - 1;
+            } else {
+                return;
+            }
+        }
+
+        // Entry i is either the player's or the one they displace. Shift the
+        // entries with lower values down into it.
+        while (i > 0 && _values[i - 1] < value) {
+            _pilots[i] = _pilots[i - 1];
+            _values[i] = _values[i - 1];
+            --i;
+        }
+        _pilots[i] = pilot;
+        _values[i] = value;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the entries, highest first.
+     *
+     * @param pilots receives the players; its length must be at least K.
+     * @param values receives the values; its length must be at least K.
+     * @return the number of entries copied.
+     */
+    public synchronized int copy(PilotStats[] pilots, double[] values) {
+        System.arraycopy(_pilots, 0, pilots, 0, _size);
+        System.arraycopy(_values, 0, values, 0, _size);
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entries when the board is full, K.
+     *
+     * @return K.
+     */
+    public int getCapacity() {
+        return _pilots.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Index of the ranked value in {@link PilotStats}.
+     */
+    protected int _index;
+
+    /**
+     * Number of entries.
+     */
+    protected int _size;
+
+    /**
+     * Players on the board, highest value first.
+     */
+    protected PilotStats[] _pilots;
+
+    /**
+     * Value of each player on the board when last offered.
+     */
+    protected double[] _values;
+} // class Leaderboard
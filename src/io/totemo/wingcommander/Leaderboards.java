@@ -0,0 +1,160 @@
+package io.totemo.wingcommander;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.entity.Player;
+
+// ----------------------------------------------------------------------------
+/**
+ * The {@link PilotStats} of every player who has logged in since the server
+ * started, and a {@link Leaderboard} for each ranked value.
+ *
+ * A player's statistics outlive their {@link PlayerState}, so they accumulate
+ * across logins and their leaderboard entries remain after they leave.
+ */
+public class Leaderboards {
+    /**
+     * Names of the ranked values, as used in commands, indexed by
+     * {@link PilotStats#DISTANCE} etc.
+     */
+    public static final String[] NAMES = { "distance", "speed", "airtime", "takeoffs" };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param size the number of entries on each leaderboard.
+     */
+    public Leaderboards(int size) {
+        _boards = new Leaderboard[PilotStats.RANKED];
+        for (int i = 0; i < _boards.length; ++i) {
+            _boards[i] = new Leaderboard(i, size);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the statistics of the specified player, creating them on the
+     * player's first login.
+     *
+     * @param player the player.
+     * @return the player's statistics.
+     */
+    public PilotStats getPilot(Player player) {
+        PilotStats pilot = _pilots.get(player.getUniqueId());
+        if (pilot == null) {
+            pilot = new PilotStats(player.getUniqueId(), player.getName());
+            PilotStats existing = _pilots.putIfAbsent(player.getUniqueId(), pilot);
+            if (existing != null) {
+                pilot = existing;
+            }
+        }
+        pilot.setPlayerName(player.getName());
+        return pilot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the statistics of the player with the specified name.
+     *
+     * This scans all players, so it is only intended for commands.
+     *
+     * @param playerName the player's name, ignoring case.
+     * @return the player's statistics, or null if they have not logged in
+     *         since the server started.
+     */
+    public PilotStats findPilot(String playerName) {
+        for (PilotStats pilot : _pilots.values()) {
+            if (pilot.getPlayerName().equalsIgnoreCase(playerName)) {
+                return pilot;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update every leaderboard with the player's current values.
+     *
+     * This is called at the end of each flight.
+     *
+     * @param pilot the player's statistics.
+     */
+    public void update(PilotStats pilot) {
+        for (Leaderboard board : _boards) {
+            board.offer(pilot);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the leaderboard of the specified value.
+     *
+     * @param index the index of the value in {@link PilotStats}.
+     * @return the leaderboard.
+     */
+    public Leaderboard get(int index) {
+        return _boards[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the ranked value with the specified name.
+     *
+     * @param name the name, ignoring case.
+     * @return the index in {@link PilotStats}, or -1 if not recognised.
+     */
+    public static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; ++i) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a ranked value for display.
+     *
+     * @param index the index of the value in {@link PilotStats}.
+     * @param value the value.
+     * @return the formatted value, with units.
+     */
+    public static String format(int index, double value) {
+        switch (index) {
+        case PilotStats.DISTANCE:
+            return String.format("%.0f blocks", value);
+        case PilotStats.SPEED:
+            return String.format("%3.1f blocks/s", 20 * value);
+        case PilotStats.AIRTIME:
+            return formatTicks((long) value);
+        default:
+            return String.format("%.0f", value);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in ticks as hours, minutes and seconds.
+     *
+     * @param ticks the duration in ticks.
+     * @return the duration as h:mm:ss.
+     */
+    public static String formatTicks(long ticks) {
+        long seconds = ticks / 20;
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from player UUID to statistics.
+     */
+    protected ConcurrentHashMap<UUID, PilotStats> _pilots = new ConcurrentHashMap<UUID, PilotStats>();
+
+    /**
+     * Leaderboards, indexed by {@link PilotStats#DISTANCE} etc.
+     */
+    protected Leaderboard[] _boards;
+} // class Leaderboards
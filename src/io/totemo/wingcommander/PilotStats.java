@@ -0,0 +1,180 @@
+package io.totemo.wingcommander;
+
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * Running totals of one player's flights since the server started.
+ *
+ * The totals are updated incrementally from the player's
+ * {@link FlightSnapshot} as they fly, at the cost of a few arithmetic
+ * operations per tick, so reports never need to replay past flights.
+ *
+ * A player's statistics are only updated on the thread that owns the player.
+ * Commands on other threads may read values that are up to a tick old.
+ */
+public class PilotStats {
+    /**
+     * Index of the total distance flown, in blocks.
+     */
+    public static final int DISTANCE = 0;
+
+    /**
+     * Index of the highest speed, in blocks per tick.
+     */
+    public static final int SPEED = 1;
+
+    /**
+     * Index of the total time spent gliding, in ticks.
+     */
+    public static final int AIRTIME = 2;
+
+    /**
+     * Index of the number of take-offs.
+     */
+    public static final int TAKEOFFS = 3;
+
+    /**
+     * Number of values with leaderboards.
+     */
+    public static final int RANKED = 4;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param playerId the player's UUID.
+     * @param playerName the player's name.
+     */
+    public PilotStats(UUID playerId, String playerName) {
+        _playerId = playerId;
+        _playerName = playerName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player's UUID.
+     *
+     * @return the player's UUID.
+     */
+    public UUID getPlayerId() {
+        return _playerId;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the player's name.
+     *
+     * @return the player's name, as of their most recent login.
+     */
+    public String getPlayerName() {
+        return _playerName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the player's name, which may change between logins.
+     *
+     * @param playerName the player's name.
+     */
+    public void setPlayerName(String playerName) {
+        _playerName = playerName;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for one tick of gliding.
+     *
+     * @param speed the player's speed in blocks per tick.
+     * @param thrust true if thrust was applied in the tick.
+     */
+    public void onGlideTick(double speed, boolean thrust) {
+        _values[DISTANCE] += speed;
+        if (speed > _values[SPEED]) {
+            _values[SPEED] = speed;
+        }
+        _values[AIRTIME] += 1;
+        if (thrust) {
+            ++_thrustTicks;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for a take-off.
+     */
+    public void onTakeOff() {
+        _values[TAKEOFFS] += 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Account for damage to the player's elytra.
+     *
+     * @param damage the durability lost.
+     */
+    public void onElytraDamaged(int damage) {
+        _durabilityUsed += damage;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return one of the ranked values.
+     *
+     * @param index {@link #DISTANCE}, {@link #SPEED}, {@link #AIRTIME} or
+     *        {@link #TAKEOFFS}.
+     * @return the value.
+     */
+    public double get(int index) {
+        return _values[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of ticks in which thrust was applied.
+     *
+     * @return the total number of ticks in which thrust was applied.
+     */
+    public long getThrustTicks() {
+        return _thrustTicks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total elytra durability used.
+     *
+     * @return the total elytra durability used.
+     */
+    public long getDurabilityUsed() {
+        return _durabilityUsed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The player's UUID.
+     */
+    protected UUID _playerId;
+
+    /**
+     * The player's name.
+     */
+    protected volatile String _playerName;
+
+    /**
+     * The ranked values, indexed by {@link #DISTANCE}, {@link #SPEED},
+     * {@link #AIRTIME} and {@link #TAKEOFFS}.
+     *
+     * Every value only ever increases, which {@link Leaderboard} relies on.
+     */
+    protected double[] _values = new double[RANKED];
+
+    /**
+     * Total number of ticks in which thrust was applied.
+     */
+    protected long _thrustTicks;
+
+    /**
+     * Total elytra durability used.
+     */
+    protected long _durabilityUsed;
+} // class PilotStats
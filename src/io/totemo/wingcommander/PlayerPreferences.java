@@ -0,0 +1,138 @@
+package io.totemo.wingcommander;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable record of one player's persistent preferences.
+ *
+ * Records are immutable so that they can be handed from the server thread to
+ * the thread that writes them to disk without copying or locking.
+ */
+public class PlayerPreferences {
+    /**
+     * Preferences of a player who has never changed them.
+     */
+    public static final PlayerPreferences DEFAULTS = new PlayerPreferences(true, true, true, true);
+
+    /**
+     * Constructor.
+     *
+     * @param altimeter true if the altimeter is shown.
+     * @param speedometer true if the speedometer is shown.
+     * @param wingometer true if the wingometer is shown.
+     * @param pitchmeter true if the pitch meter is shown.
+     */
+    public PlayerPreferences(boolean altimeter, boolean speedometer, boolean wingometer, boolean pitchmeter) {
+        _altimeter = altimeter;
+        _speedometer = speedometer;
+        _wingometer = wingometer;
+        _pitchmeter = pitchmeter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the preferences corresponding to the specified bit flags.
+     *
+     * @param flags the flags, as returned by {@link #toFlags()}.
+     * @return the preferences.
+     */
+    public static PlayerPreferences fromFlags(int flags) {
+        return new PlayerPreferences((flags & ALTIMETER) != 0,
+                                     (flags & SPEEDOMETER) != 0,
+                                     (flags & WINGOMETER) != 0,
+                                     (flags & PITCHMETER) != 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return these preferences packed into bit flags.
+     *
+     * @return the flags.
+     */
+    public int toFlags() {
+        return (_altimeter ? ALTIMETER : 0) |
+               (_speedometer ? SPEEDOMETER : 0) |
+               (_wingometer ? WINGOMETER : 0) |
+               (_pitchmeter ? PITCHMETER : 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the altimeter is shown.
+     *
+     * @return true if the altimeter is shown.
+     */
+    public boolean isAltimeterShown() {
+        return _altimeter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the speedometer is shown.
+     *
+     * @return true if the speedometer is shown.
+     */
+    public boolean isSpeedometerShown() {
+        return _speedometer;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the wingometer is shown.
+     *
+     * @return true if the wingometer is shown.
+     */
+    public boolean isWingometerShown() {
+        return _wingometer;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the pitch meter is shown.
+     *
+     * @return true if the pitch meter is shown.
+     */
+    public boolean isPitchmeterShown() {
+        return _pitchmeter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Flag set if the altimeter is shown.
+     */
+    protected static final int ALTIMETER = 1 << 0;
+
+    /**
+     * Flag set if the speedometer is shown.
+     */
+    protected static final int SPEEDOMETER = 1 << 1;
+
+    /**
+     * Flag set if the wingometer is shown.
+     */
+    protected static final int WINGOMETER = 1 << 2;
+
+    /**
+     * Flag set if the pitch meter is shown.
+     */
+    protected static final int PITCHMETER = 1 << 3;
+
+    /**
+     * True if the altimeter is shown.
+     */
+    protected final boolean _altimeter;
+
+    /**
+     * True if the speedometer is shown.
+     */
+    protected final boolean _speedometer;
+
+    /**
+     * True if the wingometer is shown.
+     */
+    protected final boolean _wingometer;
+
+    /**
+     * True if the pitch meter is shown.
+     */
+    protected final boolean _pitchmeter;
+} // class PlayerPreferences
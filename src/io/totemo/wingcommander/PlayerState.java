@@ -1,89 +1,214 @@
 package io.totemo.wingcommander;
 
-import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.Location;
-import org.bukkit.Material;
 import org.bukkit.boss.BarColor;
-import org.bukkit.boss.BarStyle;
-import org.bukkit.boss.BossBar;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.ItemStack;
 import org.bukkit.util.Vector;
 
 // ----------------------------------------------------------------------------
 /**
  * Transient, per-player state, created on join and removed when the player
  * leaves.
+ *
+ * A PlayerState is only accessed on the thread that owns its player: the
+ * server thread, or on region-threaded servers, the thread of the player's
+ * region.
  */
 public class PlayerState {
     /**
      * Constructor.
      *
      * @param player the player.
-     * @param config the configuration from which player preferences are loaded.
+     * @param store the store from which player preferences are loaded.
+     * @param recorder the recorder of the player's flights, or null to never
+     *        record them.
+     * @param leaderboards the flight statistics of all players.
      */
-    public PlayerState(Player player, YamlConfiguration config) {
+    public PlayerState(Player player, PreferencesStore store, FlightRecorder recorder, Leaderboards leaderboards) {
         _player = player;
-        _altitudeBossBar = Bukkit.getServer().createBossBar("Altitude", BarColor.BLUE, BarStyle.SEGMENTED_20);
-        _altitudeBossBar.addPlayer(_player);
-        _altitudeBossBar.setProgress(0);
-        _altitudeBossBar.setVisible(false);
-        _speedBossBar = Bukkit.getServer().createBossBar("Speed", WingCommander.CONFIG.SPEEDOMETER_COLOUR, BarStyle.SEGMENTED_20);
-        _speedBossBar.addPlayer(_player);
-        _speedBossBar.setProgress(0);
-        _speedBossBar.setVisible(false);
-        _wingsBossBar = Bukkit.getServer().createBossBar("Wings", BarColor.GREEN, BarStyle.SEGMENTED_20);
-        _wingsBossBar.addPlayer(_player);
-        _wingsBossBar.setProgress(1.0);
-        _wingsBossBar.setVisible(false);
-        _pitchBossBar = Bukkit.getServer().createBossBar("Pitch", BarColor.GREEN, BarStyle.SEGMENTED_20);
-        _pitchBossBar.addPlayer(_player);
-        _pitchBossBar.setProgress(0.5);
-        _pitchBossBar.setVisible(false);
-        load(config);
-    }
-
-    // ------------------------------------------------------------------------
-    /**
-     * Handle a physics tick.
-     */
-    public void onTick() {
-        // During take-off, force glide.
-        if (isTakingOff()) {
-            _player.setGliding(true);
-        }
+        _recorder = recorder;
+        _leaderboards = leaderboards;
+        _pilot = leaderboards.getPilot(player);
+
+        // Spread players over tick phases by a hash that is stable across
+        // logins, so that gauge refreshes are evenly distributed.
+        int hash = player.getUniqueId().hashCode();
+        _tickPhase = (hash ^ (hash >>> 16)) & Integer.MAX_VALUE;
+        _altimeter = new Gauge(_player, "Altitude", BarColor.BLUE, 0);
+        _config = WingCommander.CONFIG;
+        _speedometer = new Gauge(_player, "Speed", _config.SPEEDOMETER_COLOUR, 0);
+        _wingometer = new Gauge(_player, "Wings", BarColor.GREEN, 1.0);
+        _pitchmeter = new Gauge(_player, "Pitch", BarColor.GREEN, 0.5);
+        _bombsight = new Gauge(_player, "Bomb sight", _config.BOMBSIGHT_COLOUR, 0);
+        _gaugeFrame = new GaugeFrame(new Gauge[] { _altimeter, _speedometer, _wingometer, _pitchmeter });
+        refreshCapabilities();
+        load(store);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle the first part of a physics tick: capture the player's
+     * {@link FlightSnapshot} and decide whether to apply thrust.
+     *
+     * Thrust is not applied immediately, but added to a batch that the caller
+     * applies to all players at once, before calling
+     * {@link #onTickAfterThrust(GaugePipeline)}.
+     *
+     * @param tick the number of ticks since the plugin was enabled.
+     * @param thrust the batch to which thrusting players are added.
+     */
+    public void onTick(long tick, ThrustBatch thrust) {
+        long start = WingCommander.STATS.start();
+        _tick = tick;
+        _config = WingCommander.CONFIG;
+        checkCapabilities();
+        _snapshot.capture(_player, tick);
+        _airspaceFlags = getAirspaceFlags();
+
+        if ((_airspaceFlags & Zone.NO_FLY) != 0) {
+            enforceNoFly();
+        } else {
+            _noFlyWarned = false;
 
-        // If a player loses glide in flight, let them glide again in the air
-        // by pressing crouch.
-        if (_player.isSneaking() && WingCommander.isFlightCapable(_player) && !_player.isOnGround() && !_player.isFlying()) {
-            accelerate(WingCommander.CONFIG.ACCELERATION_LOOK);
+            // During take-off, force glide.
+            if (isTakingOff()) {
+                _player.setGliding(true);
+                _snapshot.setGliding(true);
+            }
+
+            // If a player loses glide in flight, let them glide again in the
+            // air by pressing crouch.
+            if (_snapshot.isSneaking() && !_snapshot.isOnGround() && !_snapshot.isFlying() && isFlightCapable()) {
+                thrust.add(this, _config.ACCELERATION_LOOK);
+            }
         }
+        _tickNanos = (start != 0) ? System.nanoTime() - start : 0;
+    } // onTick
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle the rest of a physics tick, after thrust has been applied: update
+     * gauges, check for the vacuum, and update flight statistics and the
+     * recording.
+     *
+     * @param gauges the pipeline that computes and applies gauge updates, or
+     *        null to update gauges immediately.
+     */
+    public void onTickAfterThrust(GaugePipeline gauges) {
+        long tickStart = WingCommander.STATS.start();
+        long start = WingCommander.STATS.start();
+        updateBossBars(gauges);
+        WingCommander.STATS.UPDATE_BOSS_BARS.record(start);
 
-        updateBossBars();
+        start = WingCommander.STATS.start();
         checkVacuumSuffocation();
-    } // onTick
+        WingCommander.STATS.VACUUM.record(start);
+        trackFlight();
+        if (tickStart != 0) {
+            WingCommander.STATS.PLAYER_TICK.recordNanos(_tickNanos + System.nanoTime() - tickStart);
+        }
+    } // onTickAfterThrust
+
+    // ------------------------------------------------------------------------
+    /**
+     * End the current flight, if any: update the leaderboards and queue the
+     * recording of the flight to be written to disk.
+     *
+     * This is called when the player lands, and when they quit or the plugin
+     * is disabled in flight.
+     */
+    public void endFlight() {
+        if (_inFlight) {
+            _inFlight = false;
+            _leaderboards.update(_pilot);
+        }
+        if (_flightLog != null) {
+            _recorder.submit(_flightLog);
+            _flightLog = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if {@link #onTick(long, ThrustBatch)} must continue to be
+     * called for this player.
+     *
+     * This is the case while the player glides, crouches, takes off or is in
+     * the vacuum, and until any visible gauges have been hidden. Otherwise,
+     * onTick() has no effect until one of the events that add the player to
+     * the {@link FlightScheduler} occurs.
+     *
+     * The player's state is read from the snapshot captured in the current
+     * tick.
+     *
+     * @return true if onTick() must continue to be called for this player.
+     */
+    public boolean needsTick() {
+        return _snapshot.isGliding() ||
+               _snapshot.isSneaking() ||
+               isTakingOff() ||
+               _altimeter.isVisible() ||
+               _speedometer.isVisible() ||
+               _wingometer.isVisible() ||
+               _pitchmeter.isVisible() ||
+               _bombsight.isVisible() ||
+               !_gaugeFrame.isEmpty() ||
+               (_airspaceFlags & Zone.VACUUM) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified location of this player is in the vacuum,
+     * and vacuum damage is enabled.
+     *
+     * @param loc the player's location.
+     * @return true if the player suffers vacuum damage at that location.
+     */
+    public boolean isInVacuum(Location loc) {
+        return (getAirspaceFlags(loc) & Zone.VACUUM) != 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is in a no-fly zone.
+     *
+     * @return true if the player is in a no-fly zone.
+     */
+    public boolean isInNoFlyZone() {
+        return (getAirspaceFlags(_player.getLocation()) & Zone.NO_FLY) != 0;
+    }
 
     // ------------------------------------------------------------------------
     /**
      * Handle the crouch key by detecting double-tap as a request to take off.
      *
-     * The caller must ensure that the player is flight capable before calling
-     * this method.
-     */
-    public void onCrouch() {
-        if (_player.isOnGround()) {
-            long now = System.currentTimeMillis();
-            if (now - _lastCrouchTime < WingCommander.CONFIG.TAKEOFF_TAP_MILLIS) {
-                _lastCrouchTime = 0;
-                setTakingOff();
-                if (WingCommander.isWearingElytra(_player, true)) {
-                    _player.setVelocity(new Vector(0, WingCommander.CONFIG.ACCELERATION_TAKEOFF_VERTICAL, 0));
+     * Taps are timed in ticks, so two taps within one tick always count as a
+     * double-tap.
+     *
+     * The caller must ensure that the player is flight capable, with up to date
+     * equipment flags, before calling this method.
+     *
+     * @param thrust the batch used to apply take-off thrust; it must be empty,
+     *        and is applied immediately.
+     * @param tick the current tick number.
+     */
+    public void onCrouch(ThrustBatch thrust, long tick) {
+        _config = WingCommander.CONFIG;
+        _snapshot.capture(_player, tick);
+        if (_snapshot.isOnGround() && (getAirspaceFlags() & Zone.NO_FLY) == 0) {
+            if (tick - _lastCrouchTick < _config.TAKEOFF_TAP_TICKS) {
+                _lastCrouchTick = NEVER;
+                setTakingOff(tick);
+                if (hasCapabilities(Capabilities.UNBROKEN_ELYTRA)) {
+                    _velocity.setX(0).setY(_config.ACCELERATION_TAKEOFF_VERTICAL).setZ(0);
+                    _player.setVelocity(_velocity);
+                    _snapshot.setVelocity(0, _config.ACCELERATION_TAKEOFF_VERTICAL, 0);
                 }
-                accelerate(WingCommander.CONFIG.ACCELERATION_TAKEOFF_LOOK);
+                thrust.add(this, _config.ACCELERATION_TAKEOFF_LOOK);
+                thrust.apply(tick);
             } else {
-                _lastCrouchTime = now;
+                _lastCrouchTick = tick;
             }
         }
     } // onCrouch
@@ -92,11 +217,66 @@ public class PlayerState {
     /**
      * Signify that the player has initiated a take-off.
      * 
-     * The start time of the take-off is recorded, and glide is forced for the
-     * configured time period thereafter in {@link PlayerState#onTick()}.
+     * The tick of the take-off is recorded, and glide is forced for the
+     * configured number of ticks thereafter in
+     * {@link PlayerState#onTick(long, ThrustBatch)}.
+     *
+     * @param tick the current tick number.
      */
-    public void setTakingOff() {
-        _takeOffTime = System.currentTimeMillis();
+    public void setTakingOff(long tick) {
+        _takeOffTick = tick;
+        ++WingCommander.STATS.TAKEOFFS;
+        _pilot.onTakeOff();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Take a token from the player's TNT token bucket, if one is available.
+     *
+     * The bucket holds up to the configured burst of tokens and refills at the
+     * configured rate. It is only refilled when tokens are taken, so idle
+     * players cost nothing.
+     *
+     * @param config the configuration.
+     * @param tick the current tick number.
+     * @return true if a token was taken and the player may throw TNT.
+     */
+    public boolean takeTNTToken(Configuration config, long tick) {
+        if (config.TNT_TOKENS_PER_TICK <= 0) {
+            return true;
+        }
+        double tokens = Math.min(config.TNT_BURST, _tntTokens + (tick - _tntTokenTick) * config.TNT_TOKENS_PER_TICK);
+        _tntTokenTick = tick;
+        if (tokens < 1) {
+            _tntTokens = tokens;
+            return false;
+        }
+        _tntTokens = tokens - 1;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a token taken by {@link #takeTNTToken(Configuration, long)} when
+     * TNT could not be thrown for another reason.
+     */
+    public void returnTNTToken() {
+        _tntTokens += 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tell the player why they can't throw TNT, at most once per second, so
+     * that auto-clickers don't flood their chat.
+     *
+     * @param tick the current tick number.
+     * @param message the message.
+     */
+    public void warnTNT(long tick, String message) {
+        if (tick - _tntWarnTick >= TNT_WARN_TICKS) {
+            _tntWarnTick = tick;
+            _player.sendMessage(ChatColor.RED + message);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -106,8 +286,121 @@ public class PlayerState {
      * @return true if the player is still in the time-limited take-off state.
      */
     public boolean isTakingOff() {
-        long now = System.currentTimeMillis();
-        return (now - _takeOffTime < WingCommander.CONFIG.TAKEOFF_GLIDE_MILLIS);
+        return (_tick - _takeOffTick < _config.TAKEOFF_GLIDE_TICKS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute all of the player's cached {@link Capabilities}.
+     */
+    public void refreshCapabilities() {
+        _capabilities = Capabilities.getPermissions(_player);
+        refreshEquipment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute all of the player's cached {@link Capabilities} periodically,
+     * in case a change was not signalled by an event; otherwise, only recheck
+     * their equipment if it may have changed.
+     *
+     * Players are spread over tick phases, so that only a fraction of them
+     * are rechecked on any one tick. A player who has not been ticked for a
+     * whole period is rechecked straight away.
+     */
+    protected void checkCapabilities() {
+        int period = _config.CAPABILITIES_RESYNC_TICKS;
+        if ((_tick + _tickPhase) % period == 0 || _tick - _capabilitiesTick >= period) {
+            _capabilitiesTick = _tick;
+            refreshCapabilities();
+        } else {
+            checkEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute the cached elytra durability, the held item and the
+     * {@link Capabilities} that depend on them from the player's actual
+     * equipment.
+     */
+    public void refreshEquipment() {
+        setElytraDurability(Capabilities.getElytraDurability(_player));
+        _capabilities = (_capabilities & ~Capabilities.HOLDING_TNT) | Capabilities.getHeldItem(_player);
+        _equipmentStale = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that the player's equipment may be about to change in a way
+     * that cannot be tracked incrementally.
+     *
+     * The equipment is rechecked by {@link #checkEquipment()}, which happens
+     * after the change has taken effect.
+     */
+    public void invalidateEquipment() {
+        _equipmentStale = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recheck the player's equipment if it may have changed since it was last
+     * checked.
+     */
+    public void checkEquipment() {
+        if (_equipmentStale) {
+            refreshEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the cached elytra durability when the player's elytra take
+     * damage.
+     *
+     * @param damage the damage taken.
+     */
+    public void onElytraDamaged(int damage) {
+        if (_elytraDurability == Capabilities.NO_ELYTRA) {
+            // The damaged elytra must have been put on since the last check.
+            invalidateEquipment();
+        } else {
+            _pilot.onElytraDamaged(Math.min(damage, _elytraDurability));
+            setElytraDurability(Math.max(0, _elytraDurability - damage));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached remaining durability of the player's elytra.
+     *
+     * @return the remaining durability, or {@link Capabilities#NO_ELYTRA} if
+     *         the player is not wearing elytra.
+     */
+    public int getElytraDurability() {
+        return _elytraDurability;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player has all of the specified cached capabilities.
+     *
+     * @param flags a combination of {@link Capabilities} flags.
+     * @return true if the player has all of the specified capabilities.
+     */
+    public boolean hasCapabilities(int flags) {
+        return (_capabilities & flags) == flags;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the player is wearing elytra and has permission for
+     * powered flight, according to the cached capabilities.
+     *
+     * @return true if the player is capable of powered flight.
+     */
+    public boolean isFlightCapable() {
+        return hasCapabilities(Capabilities.FLIGHT_CAPABLE);
     }
 
     // ------------------------------------------------------------------------
@@ -118,6 +411,7 @@ public class PlayerState {
      */
     public void showAltimeter(Boolean visibility) {
         _showAltimeter = (visibility == null) ? !_showAltimeter : visibility;
+        _dirty = true;
     }
 
     // ------------------------------------------------------------------------
@@ -138,6 +432,7 @@ public class PlayerState {
      */
     public void showSpeedometer(Boolean visibility) {
         _showSpeedometer = (visibility == null) ? !_showSpeedometer : visibility;
+        _dirty = true;
     }
 
     // ------------------------------------------------------------------------
@@ -158,6 +453,7 @@ public class PlayerState {
      */
     public void showWingometer(Boolean visibility) {
         _showWingometer = (visibility == null) ? !_showWingometer : visibility;
+        _dirty = true;
     }
 
     // ------------------------------------------------------------------------
@@ -178,6 +474,7 @@ public class PlayerState {
      */
     public void showPitchmeter(Boolean visibility) {
         _showPitchmeter = (visibility == null) ? !_showPitchmeter : visibility;
+        _dirty = true;
     }
 
     // ------------------------------------------------------------------------
@@ -192,239 +489,542 @@ public class PlayerState {
 
     // ------------------------------------------------------------------------
     /**
-     * Save this player's preferences to the specified configuration.
+     * Save this player's preferences to the specified store, if they have
+     * changed since they were loaded or last saved.
+     *
+     * The store writes them to disk asynchronously.
      *
-     * @param config the configuration to update.
+     * @param store the store to update.
      */
-    public void save(YamlConfiguration config) {
-        ConfigurationSection section = config.getConfigurationSection(_player.getUniqueId().toString());
-        section.set("name", _player.getName());
-        section.set("altimeter", _showAltimeter);
-        section.set("speedometer", _showSpeedometer);
-        section.set("wingometer", _showWingometer);
-        section.set("pitchmeter", _showPitchmeter);
+    public void save(PreferencesStore store) {
+        if (_dirty) {
+            store.put(_player.getUniqueId(),
+                      new PlayerPreferences(_showAltimeter, _showSpeedometer, _showWingometer, _showPitchmeter));
+            _dirty = false;
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Load the Player's preferences from the specified configuration
+     * Load the Player's preferences from the specified store.
      *
-     * @param config the configuration from which player preferences are loaded.
+     * @param store the store from which player preferences are loaded.
      */
-    public void load(YamlConfiguration config) {
-        ConfigurationSection section = config.getConfigurationSection(_player.getUniqueId().toString());
-        if (section == null) {
-            section = config.createSection(_player.getUniqueId().toString());
-        }
-        _showAltimeter = section.getBoolean("altimeter", true);
-        _showSpeedometer = section.getBoolean("speedometer", true);
-        _showWingometer = section.getBoolean("wingometer", true);
-        _showPitchmeter = section.getBoolean("pitchmeter", true);
+    public void load(PreferencesStore store) {
+        PlayerPreferences preferences = store.get(_player.getUniqueId());
+        _dirty = false;
+        _showAltimeter = preferences.isAltimeterShown();
+        _showSpeedometer = preferences.isSpeedometerShown();
+        _showWingometer = preferences.isWingometerShown();
+        _showPitchmeter = preferences.isPitchmeterShown();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a gauge with the specified refresh period should be
+     * updated on the current tick.
+     *
+     * A gauge that is not yet visible is always due, so that it never shows a
+     * stale reading when it appears.
+     *
+     * @param gauge the gauge.
+     * @param refreshTicks the period between updates, in ticks.
+     * @return true if the gauge should be updated this tick.
+     */
+    protected boolean isRefreshDue(Gauge gauge, int refreshTicks) {
+        return refreshTicks <= 1 || !gauge.isVisible() || (_tick + _tickPhase) % refreshTicks == 0;
     }
 
     // ------------------------------------------------------------------------
     /**
      * Update BossBars according to the player's state and the configuration.
+     *
+     * Gauges are hidden immediately when they should not be shown, but
+     * visible gauges are only refreshed at their configured intervals.
+     * Readings are taken from the snapshot captured in the current tick.
+     *
+     * The readings of gauges due for a refresh are captured in the player's
+     * {@link GaugeFrame}. If a pipeline is specified, the frame is computed on
+     * a worker thread and applied in the next tick; otherwise it is computed
+     * and applied immediately.
+     *
+     * @param gauges the pipeline, or null.
      */
-    protected void updateBossBars() {
-        boolean gaugesMayActivate = _player.isGliding() && _player.hasPermission("wingcommander.gauge");
+    protected void updateBossBars(GaugePipeline gauges) {
+        boolean gaugesMayActivate = _snapshot.isGliding() && hasCapabilities(Capabilities.GAUGE);
 
         // Debounce gauge activation.
         if (gaugesMayActivate) {
             if (!_gaugesPossible) {
-                long now = System.currentTimeMillis();
-                if (_glideStartTime == 0) {
-                    _glideStartTime = now;
-                } else if (now - _glideStartTime > WingCommander.CONFIG.GAUGE_DEBOUNCE_MILLIS) {
+                if (_glideStartTick == NEVER) {
+                    _glideStartTick = _tick;
+                } else if (_tick - _glideStartTick > _config.GAUGE_DEBOUNCE_TICKS) {
                     _gaugesPossible = true;
                 }
             }
         } else {
             _gaugesPossible = false;
-            _glideStartTime = 0;
+            _glideStartTick = NEVER;
         }
 
         // If you show the altimeter when the player has equipped elytra and
         // not on the ground, every little jump will flash the altimeter.
         // Test for gliding instead.
-        if (_gaugesPossible && WingCommander.CONFIG.ALTIMETER_ENABLED && _showAltimeter) {
-            double altitude = _player.getLocation().getY();
-            _altitudeBossBar.setColor(WingCommander.CONFIG.getBarColor(WingCommander.CONFIG.ALTIMETER_COLOURS, (int) altitude));
-            _altitudeBossBar.setTitle(String.format("Altitude: %d", (int) altitude));
-            _altitudeBossBar.setProgress(Math.min(1.0, Math.max(0.0, altitude / WingCommander.CONFIG.ALTIMETER_CEILING)));
-            _altitudeBossBar.setVisible(true);
+        if (_gaugesPossible && _config.ALTIMETER_ENABLED && _showAltimeter) {
+            if (isRefreshDue(_altimeter, _config.ALTIMETER_REFRESH_TICKS)) {
+                if (_config.ALTIMETER_TERRAIN) {
+                    // Until the heights of the chunk below are cached, the
+                    // altimeter keeps its last reading.
+                    int ground = WingCommander.HEIGHTS.getHeight(_snapshot.getWorld(),
+                                                                 (int) Math.floor(_snapshot.getX()),
+                                                                 (int) Math.floor(_snapshot.getZ()),
+                                                                 _tick, _config.HEIGHT_CACHE_TICKS);
+                    if (ground != HeightCache.UNKNOWN) {
+                        _gaugeFrame.capture(_config, GaugeFrame.ALTIMETER, Math.max(0, _snapshot.getY() - ground));
+                    }
+                } else {
+                    _gaugeFrame.capture(_config, GaugeFrame.ALTIMETER, _snapshot.getY());
+                }
+            }
         } else {
-            _altitudeBossBar.setVisible(false);
+            _altimeter.setVisible(false);
         }
 
-        if (_gaugesPossible && WingCommander.CONFIG.SPEEDOMETER_ENABLED && _showSpeedometer) {
-            double speed = _player.getVelocity().length();
-            _speedBossBar.setTitle(String.format("Speed: %3.1f", 20 * speed));
-            _speedBossBar.setProgress(Math.min(1.0, Math.max(0.0, speed / WingCommander.CONFIG.SPEEDOMETER_MAX)));
-            _speedBossBar.setVisible(true);
+        if (_gaugesPossible && _config.SPEEDOMETER_ENABLED && _showSpeedometer) {
+            if (isRefreshDue(_speedometer, _config.SPEEDOMETER_REFRESH_TICKS)) {
+                _gaugeFrame.capture(_config, GaugeFrame.SPEEDOMETER, _snapshot.getSpeed());
+            }
         } else {
-            _speedBossBar.setVisible(false);
+            _speedometer.setVisible(false);
         }
 
-        if (_gaugesPossible && WingCommander.CONFIG.WINGOMETER_ENABLED && _showWingometer) {
-            ItemStack chest = _player.getEquipment().getChestplate();
-            // On player death, chest item stack becomes null.
-            if (chest != null) {
-                int remainingDurability = Material.ELYTRA.getMaxDurability() - chest.getDurability();
-                double fraction = remainingDurability / (double) Material.ELYTRA.getMaxDurability();
-                int percentage = (int) (100 * fraction);
-                _wingsBossBar.setColor(WingCommander.CONFIG.getBarColor(WingCommander.CONFIG.WINGOMETER_COLOURS, percentage));
-                _wingsBossBar.setTitle(String.format("Wings: %d%%", percentage));
-                _wingsBossBar.setProgress(Math.min(1.0, Math.max(0.0, fraction)));
-                _wingsBossBar.setVisible(true);
+        if (_gaugesPossible && _config.WINGOMETER_ENABLED && _showWingometer) {
+            if (isRefreshDue(_wingometer, _config.WINGOMETER_REFRESH_TICKS)) {
+                if (_elytraDurability != Capabilities.NO_ELYTRA) {
+                    _gaugeFrame.capture(_config, GaugeFrame.WINGOMETER, _elytraDurability);
+                }
             }
         } else {
-            _wingsBossBar.setVisible(false);
+            _wingometer.setVisible(false);
         }
 
-        if (_gaugesPossible && WingCommander.CONFIG.PITCHMETER_ENABLED && _showPitchmeter) {
-            double pitch = -_player.getLocation().getPitch();
-            double fraction = (pitch - WingCommander.CONFIG.PITCHMETER_MIN) /
-                              (WingCommander.CONFIG.PITCHMETER_MAX - WingCommander.CONFIG.PITCHMETER_MIN);
-            _pitchBossBar.setColor(WingCommander.CONFIG.getBarColor(WingCommander.CONFIG.PITCHMETER_COLOURS, (int) pitch));
-            _pitchBossBar.setTitle(String.format("Pitch: %3.1f°", pitch));
-            _pitchBossBar.setProgress(Math.min(1.0, Math.max(0.0, fraction)));
-            _pitchBossBar.setVisible(true);
+        if (_gaugesPossible && _config.PITCHMETER_ENABLED && _showPitchmeter) {
+            if (isRefreshDue(_pitchmeter, _config.PITCHMETER_REFRESH_TICKS)) {
+                _gaugeFrame.capture(_config, GaugeFrame.PITCHMETER, -_snapshot.getPitch());
+            }
         } else {
-            _pitchBossBar.setVisible(false);
+            _pitchmeter.setVisible(false);
+        }
+
+        if (_gaugesPossible && _config.BOMBSIGHT_ENABLED &&
+            hasCapabilities(Capabilities.TNT | Capabilities.HOLDING_TNT)) {
+            if (isRefreshDue(_bombsight, _config.BOMBSIGHT_REFRESH_TICKS)) {
+                updateBombSight();
+            }
+        } else {
+            _bombsight.setVisible(false);
+        }
+
+        if (!_gaugeFrame.isEmpty()) {
+            if (gauges != null) {
+                gauges.add(_gaugeFrame);
+            } else {
+                _gaugeFrame.compute();
+                _gaugeFrame.apply();
+            }
         }
     } // updateBossBars
 
     // ------------------------------------------------------------------------
     /**
-     * Inflict one tick's worth of asphyxiation damage from the vacuum if the
-     * player flies too high.
+     * Predict where TNT thrown or dropped now would land, and show the
+     * prediction on the bomb sight.
+     *
+     * TNT spawns at the player's position with their velocity. Thrown TNT
+     * also has the configured throw speed in the look direction, as in
+     * WingCommander.onPlayerInteract(). The prediction is computed and shown
+     * immediately, rather than through the {@link GaugeFrame}, since it reads
+     * terrain heights from the world.
      */
-    protected void checkVacuumSuffocation() {
-        if (WingCommander.CONFIG.VACUUM_ENABLED &&
-            _player.getLocation().getY() >= WingCommander.CONFIG.VACUUM_ALTITUDE) {
-            _player.damage(WingCommander.CONFIG.VACUUM_DAMAGE);
+    protected void updateBombSight() {
+        double vx = _snapshot.getVelocityX();
+        double vy = _snapshot.getVelocityY();
+        double vz = _snapshot.getVelocityZ();
+        if (_config.BOMBSIGHT_THROWN) {
+            // Look direction, as computed by Location.getDirection().
+            double yaw = Math.toRadians(_snapshot.getYaw());
+            double pitch = Math.toRadians(_snapshot.getPitch());
+            double xz = Math.cos(pitch);
+            vx -= _config.TNT_THROW_SPEED * xz * Math.sin(yaw);
+            vy -= _config.TNT_THROW_SPEED * Math.sin(pitch);
+            vz += _config.TNT_THROW_SPEED * xz * Math.cos(yaw);
         }
-    }
+        _bombSight.solve(_snapshot.getWorld(), _snapshot.getX(), _snapshot.getY(), _snapshot.getZ(), vx, vy, vz,
+                         WingCommander.HEIGHTS, _tick, _config.HEIGHT_CACHE_TICKS);
+
+        // The title is only formatted when something shown in it changes.
+        // Each new title gets a new reading, so that the gauge updates it.
+        int x = (int) Math.floor(_bombSight.getX());
+        int y = (int) Math.floor(_bombSight.getY());
+        int z = (int) Math.floor(_bombSight.getZ());
+        int ticks = _bombSight.getTicks();
+        int kind = !_bombSight.isKnown() ? 0 : (_bombSight.isImpact() ? 1 : 2);
+        String title = null;
+        if (_bombsight.getReading() != _bombSightReading ||
+            kind != _bombSightKind || x != _bombSightX || y != _bombSightY || z != _bombSightZ ||
+            ticks / 2 != _bombSightHalfTicks) {
+            _bombSightKind = kind;
+            _bombSightX = x;
+            _bombSightY = y;
+            _bombSightZ = z;
+            _bombSightHalfTicks = ticks / 2;
+            // Skip the value that Gauge uses to signify no reading.
+            if (++_bombSightReading == Integer.MIN_VALUE) {
+                ++_bombSightReading;
+            }
+            if (!_bombSight.isKnown()) {
+                title = "Bomb sight: out of range";
+            } else {
+                title = String.format("%s: %d, %d, %d in %.1fs", _bombSight.isImpact() ? "Impact" : "Airburst",
+                                      x, y, z, ticks / 20.0);
+            }
+        }
+        _bombsight.show(_config.BOMBSIGHT_COLOUR, title, _bombSightReading, ticks / (double) BombSight.FUSE_TICKS);
+    } // updateBombSight
 
     // ------------------------------------------------------------------------
     /**
-     * Boost the player's velocity in the player's look direction, but limit the
-     * magnitude of the velocity to the configured maximum.
-     *
-     * When power is applied and the elytra are not broken, glide is enabled. If
-     * the elytra are broken, only glide if configured to do so.
-     *
-     * Also show particle effects and play the engine sound. If the elytra are
-     * too damaged to function, no acceleration is applied and a different
-     * engine sound is played.
+     * Set the cached elytra durability and update the {@link Capabilities}
+     * that depend on it.
      *
-     * The caller must ensure that the player is wearing powered elytra before
-     * calling this method.
-     *
-     * @param acceleration acceleration to apply in the player's look direction.
+     * @param durability the remaining durability, or
+     *        {@link Capabilities#NO_ELYTRA}.
      */
-    protected void accelerate(double acceleration) {
-        _gaugesPossible = true;
-        Location loc = _player.getLocation();
-
-        // Base the pitch on the current (not new) speed. Good enough.
-        // Pitch is limited to the [0.5, 2.0] range in the client, apparently.
-        // Dot product measures whether player is moving in the direction they
-        // look.
-        Vector velocity = _player.getVelocity();
-        Vector look = _player.getLocation().getDirection();
-        float speedFraction = (float) (Math.max(0.0, velocity.dot(look)) / WingCommander.CONFIG.MAX_VELOCITY);
-        float pitch = 0.5f + 1.5f * speedFraction;
+    protected void setElytraDurability(int durability) {
+        _elytraDurability = durability;
+        _capabilities = (_capabilities & ~Capabilities.EQUIPMENT) | Capabilities.getEquipment(durability);
+    }
 
-        // Method precondition is "wearing elytra irrespective of durability".
-        // Check for unbroken elytra.
-        if (WingCommander.isWearingElytra(_player, true)) {
-            _player.setGliding(true);
+    // ------------------------------------------------------------------------
+    /**
+     * Account for the current tick of a flight: a flight starts when the
+     * player begins to glide and ends when they stop.
+     *
+     * The player is ticked for as long as they glide, so every tick of the
+     * flight is counted, and recorded if the recorder is enabled, including
+     * the one in which they land.
+     */
+    protected void trackFlight() {
+        boolean thrusting = _thrusting;
+        _thrusting = false;
+        if (_snapshot.isGliding()) {
+            _inFlight = true;
+            _pilot.onGlideTick(_snapshot.getSpeed(), thrusting);
+        }
+        if (_inFlight) {
+            recordFlight(thrusting);
+            if (!_snapshot.isGliding() && !isTakingOff()) {
+                endFlight();
+            }
+        }
+    } // trackFlight
 
-            Vector boost = look;
-            boost.multiply(acceleration);
-            velocity.add(boost);
-            if (velocity.length() > WingCommander.CONFIG.MAX_VELOCITY) {
-                velocity.multiply(WingCommander.CONFIG.MAX_VELOCITY / velocity.length());
+    // ------------------------------------------------------------------------
+    /**
+     * Record a sample of the current flight, if the recorder is enabled.
+     *
+     * @param thrusting true if thrust was applied in the tick.
+     */
+    protected void recordFlight(boolean thrusting) {
+        if (_flightLog == null) {
+            if (_recorder == null || !_config.RECORDER_ENABLED) {
+                return;
             }
-            _player.setVelocity(velocity);
+            _flightLog = _recorder.acquire(_config.RECORDER_CAPACITY_TICKS);
+            _flightLog.begin(_player, _snapshot);
+        }
+        _flightLog.record(_snapshot, thrusting, _elytraDurability);
+    }
 
-            if (WingCommander.CONFIG.EXHAUST_PARTICLE != null) {
-                loc.getWorld().spawnParticle(WingCommander.CONFIG.EXHAUST_PARTICLE,
-                                             loc,
-                                             WingCommander.CONFIG.EXHAUST_COUNT,
-                                             WingCommander.CONFIG.EXHAUST_OFFSET,
-                                             WingCommander.CONFIG.EXHAUST_OFFSET,
-                                             WingCommander.CONFIG.EXHAUST_OFFSET,
-                                             WingCommander.CONFIG.EXHAUST_SPEED);
+    // ------------------------------------------------------------------------
+    /**
+     * Return the airspace rules at the player's location in the snapshot.
+     *
+     * @return a combination of {@link Zone#VACUUM} and {@link Zone#NO_FLY}.
+     */
+    protected int getAirspaceFlags() {
+        return _config.AIRSPACE.getFlags(_snapshot.getWorld(), _snapshot.getX(), _snapshot.getY(),
+                                         _snapshot.getZ(), _airspace);
+    }
 
-            }
+    // ------------------------------------------------------------------------
+    /**
+     * Return the airspace rules at the specified location of this player.
+     *
+     * @param loc the player's location.
+     * @return a combination of {@link Zone#VACUUM} and {@link Zone#NO_FLY}.
+     */
+    protected int getAirspaceFlags(Location loc) {
+        return WingCommander.CONFIG.AIRSPACE.getFlags(loc.getWorld(), loc.getX(), loc.getY(), loc.getZ(), _airspace);
+    }
 
-            if (WingCommander.CONFIG.EXHAUST_SOUND != null) {
-                loc.getWorld().playSound(loc, WingCommander.CONFIG.EXHAUST_SOUND,
-                                         WingCommander.CONFIG.EXHAUST_VOLUME, pitch);
-            }
-        } else {
-            loc.getWorld().playSound(loc, WingCommander.CONFIG.BROKEN_SOUND,
-                                     WingCommander.CONFIG.BROKEN_VOLUME, pitch);
-            if (WingCommander.CONFIG.BROKEN_GLIDE) {
-                _player.setGliding(true);
-                _player.setFallDistance(Math.max(0, _player.getFallDistance() - WingCommander.CONFIG.BROKEN_GLIDE_FALL_REDUCTION));
+    // ------------------------------------------------------------------------
+    /**
+     * Stop a player in a no-fly zone from flying, and tell them why, once.
+     */
+    protected void enforceNoFly() {
+        _takeOffTick = NEVER;
+        if (_snapshot.isGliding()) {
+            _player.setGliding(false);
+            _snapshot.setGliding(false);
+            if (!_noFlyWarned) {
+                _noFlyWarned = true;
+                _player.sendMessage(ChatColor.RED + "You can't fly here.");
             }
         }
-    } // accelerate
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Inflict one tick's worth of asphyxiation damage from the vacuum if the
+     * player flies too high.
+     */
+    protected void checkVacuumSuffocation() {
+        if ((_airspaceFlags & Zone.VACUUM) != 0) {
+            _player.damage(_config.VACUUM_DAMAGE);
+        }
+    }
 
     // ------------------------------------------------------------------------
+    /**
+     * Tick number used for events that have not happened; far enough in the
+     * past that subtracting it from a tick number cannot overflow.
+     */
+    protected static final long NEVER = Long.MIN_VALUE / 2;
+
+    /**
+     * Minimum period in ticks between messages about TNT throttling.
+     */
+    protected static final long TNT_WARN_TICKS = 20;
+
     /**
      * The Player.
      */
     protected Player _player;
 
     /**
-     * Time stamp of the player's last crouch start.
+     * True if this state is in the {@link GliderRegistry}.
+     */
+    protected boolean _registered;
+
+    /**
+     * The tick number passed to the most recent call to
+     * {@link #onTick(long, ThrustBatch)}.
      */
-    protected long _lastCrouchTime;
+    protected long _tick;
 
     /**
-     * Time stamp of the player's last take off.
+     * The player's flight state, captured once per tick.
      */
-    protected long _takeOffTime;
+    protected FlightSnapshot _snapshot = new FlightSnapshot();
+
+    /**
+     * The recorder of the player's flights, or null.
+     */
+    protected FlightRecorder _recorder;
+
+    /**
+     * The log of the flight being recorded, or null if not recording.
+     */
+    protected FlightLog _flightLog;
+
+    /**
+     * The flight statistics of all players.
+     */
+    protected Leaderboards _leaderboards;
+
+    /**
+     * This player's flight statistics.
+     */
+    protected PilotStats _pilot;
+
+    /**
+     * True between the first and last ticks of a flight.
+     */
+    protected boolean _inFlight;
+
+    /**
+     * True if thrust was applied to the player since the last recorded
+     * sample; set by {@link ThrustBatch#add(PlayerState, double)}.
+     */
+    protected boolean _thrusting;
+
+    /**
+     * The configuration snapshot read at the start of the current tick, so
+     * that a reload part way through the tick does not mix settings.
+     */
+    protected Configuration _config;
+
+    /**
+     * Vector used to set the player's velocity.
+     */
+    protected Vector _velocity = new Vector();
+
+    /**
+     * The player's cached capabilities: a combination of {@link Capabilities}
+     * flags.
+     */
+    protected int _capabilities;
+
+    /**
+     * Cached remaining durability of the player's elytra, or
+     * {@link Capabilities#NO_ELYTRA}.
+     *
+     * This is updated incrementally as the elytra take damage, and rechecked
+     * when the equipment may have changed in other ways.
+     */
+    protected int _elytraDurability = Capabilities.NO_ELYTRA;
+
+    /**
+     * If true, the player's equipment may have changed since
+     * _elytraDurability and the held item were last checked.
+     */
+    protected boolean _equipmentStale;
+
+    /**
+     * The tick when all of the player's {@link Capabilities} were last
+     * rechecked by {@link #checkCapabilities()}.
+     */
+    protected long _capabilitiesTick = NEVER;
+
+    /**
+     * Cached result of the player's most recent airspace lookup.
+     */
+    protected AirspaceCache _airspace = new AirspaceCache();
+
+    /**
+     * Airspace rules at the player's location, as of the most recent call to
+     * {@link #onTick(long, ThrustBatch)}.
+     */
+    protected int _airspaceFlags;
+
+    /**
+     * True if the player has been told that they can't fly in the no-fly zone
+     * they are in.
+     */
+    protected boolean _noFlyWarned;
+
+    /**
+     * Number of tokens in the player's TNT token bucket as of _tntTokenTick.
+     */
+    protected double _tntTokens;
+
+    /**
+     * Tick at which _tntTokens was last updated.
+     */
+    protected long _tntTokenTick = NEVER;
+
+    /**
+     * Tick of the most recent message about TNT throttling.
+     */
+    protected long _tntWarnTick = NEVER;
+
+    /**
+     * Time in nanoseconds taken by the most recent call to
+     * {@link #onTick(long, ThrustBatch)}, or 0 if timing is disabled.
+     */
+    protected long _tickNanos;
+
+    /**
+     * Offset added to the tick number to decide when gauges are refreshed.
+     *
+     * This spreads players with the same gauge refresh period evenly across
+     * ticks.
+     */
+    protected int _tickPhase;
+
+    /**
+     * Tick number of the player's last crouch start.
+     */
+    protected long _lastCrouchTick = NEVER;
+
+    /**
+     * Tick number of the player's last take off.
+     */
+    protected long _takeOffTick = NEVER;
 
     /**
      * If true, gauges can be shown.
      *
      * In order to "debounce" gauge activation, this flag will not be set until
      * after the player has glided for at least
-     * WingCommander.CONFIG.GAUGE_DEBOUNCE_MILLIS milliseconds.
+     * WingCommander.CONFIG.GAUGE_DEBOUNCE_TICKS ticks.
      */
     protected boolean _gaugesPossible;
 
     /**
-     * Start time of the player's most recent glide, if they have permission to
-     * use gauges.
+     * Tick number of the start of the player's most recent glide, if they have
+     * permission to use gauges.
      */
-    protected long _glideStartTime;
+    protected long _glideStartTick = NEVER;
 
     /**
-     * BossBar used to display the player's altitude.
+     * Gauge used to display the player's altitude.
      */
-    protected BossBar _altitudeBossBar;
+    protected Gauge _altimeter;
 
     /**
-     * BossBar used to display the player's speed.
+     * Gauge used to display the player's speed.
      */
-    protected BossBar _speedBossBar;
+    protected Gauge _speedometer;
 
     /**
-     * BossBar used to display the player's wing durability percentage.
+     * Gauge used to display the player's wing durability percentage.
      */
-    protected BossBar _wingsBossBar;
+    protected Gauge _wingometer;
 
     /**
-     * BossBar used to display the player's pitch.
+     * Gauge used to display the player's pitch.
      */
-    protected BossBar _pitchBossBar;
+    protected Gauge _pitchmeter;
+
+    /**
+     * Bomb sight BossBar.
+     */
+    protected Gauge _bombsight;
+
+    /**
+     * Predicts the trajectory of TNT for the bomb sight.
+     */
+    protected BombSight _bombSight = new BombSight();
+
+    /**
+     * The reading most recently passed to the bomb sight gauge, incremented
+     * whenever its title changes.
+     */
+    protected int _bombSightReading;
+
+    /**
+     * The prediction kind (0: out of range, 1: impact, 2: airburst) shown in
+     * the bomb sight title.
+     */
+    protected int _bombSightKind;
+
+    /**
+     * The block coordinates shown in the bomb sight title.
+     */
+    protected int _bombSightX, _bombSightY, _bombSightZ;
+
+    /**
+     * Half the number of ticks until detonation shown in the bomb sight
+     * title.
+     */
+    protected int _bombSightHalfTicks;
+
+    /**
+     * Gauge updates captured in the current tick.
+     */
+    protected GaugeFrame _gaugeFrame;
 
     /**
      * If true, the altimeter is visible (notwithstanding other requirements for
@@ -450,4 +1050,10 @@ public class PlayerState {
      */
     protected boolean _showPitchmeter;
 
+    /**
+     * If true, the player's preferences have changed since they were last
+     * saved.
+     */
+    protected boolean _dirty;
+
 } // class PlayerState
\ No newline at end of file
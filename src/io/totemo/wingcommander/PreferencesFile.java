@@ -0,0 +1,502 @@
+package io.totemo.wingcommander;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * A file of fixed-size per-player records, indexed by UUID.
+ *
+ * The file is an open-addressed hash table with linear probing. It begins with
+ * a header (magic number, version, capacity and record count) followed by
+ * capacity slots. Each slot holds a UUID, an int of flags and a checksum of
+ * both; a slot is in use if the {@link #USED} bit of its flags is set.
+ * Looking up or updating a record reads only the few slots that are probed,
+ * so the file never has to be loaded as a whole.
+ *
+ * Records are updated in place, so a crash can leave a slot half written.
+ * Such a slot fails its checksum and reads as no record, i.e. the default
+ * preferences, rather than as garbage; the next write of the same UUID
+ * repairs it. The record count is recomputed from the slots when the file is
+ * opened, so it cannot disagree with them, and if any slot is damaged the
+ * table is rebuilt without it.
+ *
+ * When the table becomes half full, it is rehashed into a new file with
+ * double the capacity, which then atomically replaces the old one. Files
+ * written by the previous version, which had no checksums, are converted the
+ * same way when opened.
+ *
+ * All methods are synchronized and perform I/O, so they should not be called
+ * from the server thread.
+ */
+public class PreferencesFile {
+    /**
+     * Bit set in the flags of every slot that holds a record.
+     */
+    public static final int USED = 1 << 31;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file.
+     */
+    public PreferencesFile(File file) {
+        _file = file;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the file exists.
+     *
+     * @return true if the file exists.
+     */
+    public boolean exists() {
+        return _file.isFile();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the file, creating it if it does not exist.
+     *
+     * @throws IOException if the file cannot be opened or is not a valid
+     *         preferences file.
+     */
+    public synchronized void open() throws IOException {
+        _file.getParentFile().mkdirs();
+        if (!_file.isFile()) {
+            create(_file, INITIAL_CAPACITY).close();
+        }
+
+        _raf = new RandomAccessFile(_file, "rw");
+        _channel = _raf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(_channel, header, 0);
+        int version = header.getInt(4);
+        if (header.getInt(0) != MAGIC || (version != VERSION && version != UNCHECKED_VERSION)) {
+            close();
+            throw new IOException(_file.getName() + " is not a valid preferences file");
+        }
+        _capacity = header.getInt(8);
+        if (Integer.bitCount(_capacity) != 1) {
+            close();
+            throw new IOException(_file.getName() + " has an invalid capacity: " + _capacity);
+        }
+
+        if (version == UNCHECKED_VERSION) {
+            rebuild(UNCHECKED_SLOT_SIZE, _capacity);
+            return;
+        }
+
+        // Recount the records, rebuilding the table without damaged slots.
+        int count = 0;
+        boolean damaged = false;
+        ByteBuffer slots = ByteBuffer.allocate(SCAN_SLOTS * SLOT_SIZE);
+        for (int first = 0; first < _capacity; first += SCAN_SLOTS) {
+            int n = Math.min(SCAN_SLOTS, _capacity - first);
+            slots.clear();
+            slots.limit(n * SLOT_SIZE);
+            readFully(_channel, slots, slotPosition(first));
+            for (int i = 0; i < n; ++i) {
+                int offset = i * SLOT_SIZE;
+                if ((slots.getInt(offset + 16) & USED) != 0) {
+                    ++count;
+                    damaged |= !isValid(slots, offset);
+                }
+            }
+        }
+        if (damaged) {
+            rebuild(SLOT_SIZE, _capacity);
+        } else if (count != header.getInt(12)) {
+            _count = count;
+            writeCount(_channel, _count);
+        } else {
+            _count = count;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the file.
+     */
+    public synchronized void close() {
+        if (_raf != null) {
+            try {
+                _raf.close();
+            } catch (IOException ex) {
+            }
+            _raf = null;
+            _channel = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags of the record for the specified UUID.
+     *
+     * @param uuid the UUID.
+     * @return the flags, including {@link #USED}, or 0 if there is no record
+     *         or it is damaged.
+     * @throws IOException on I/O error.
+     */
+    public synchronized int read(UUID uuid) throws IOException {
+        checkOpen();
+        int index = probe(_channel, _capacity, uuid);
+        return (index >= 0 && isValid(_slot, 0)) ? _slot.getInt(16) : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the flags of the record for the specified UUID, adding the record
+     * if necessary.
+     *
+     * @param uuid the UUID.
+     * @param flags the flags; {@link #USED} is set automatically.
+     * @throws IOException on I/O error.
+     */
+    public synchronized void write(UUID uuid, int flags) throws IOException {
+        checkOpen();
+        int index = probe(_channel, _capacity, uuid);
+        if (index < 0) {
+            if (2 * (_count + 1) > _capacity) {
+                grow();
+                index = probe(_channel, _capacity, uuid);
+            }
+            index = -index - 1;
+            writeSlot(_channel, index, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), flags | USED);
+            ++_count;
+            writeCount(_channel, _count);
+        } else {
+            writeSlot(_channel, index, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), flags | USED);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Force all writes to the storage device.
+     *
+     * @throws IOException on I/O error.
+     */
+    public synchronized void force() throws IOException {
+        checkOpen();
+        _channel.force(false);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Throw an IOException if the file is not open.
+     *
+     * @throws IOException if the file is not open.
+     */
+    protected void checkOpen() throws IOException {
+        if (_channel == null) {
+            throw new IOException(_file.getName() + " is not open");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rehash all records into a new file with twice the capacity and replace
+     * the current file with it.
+     *
+     * @throws IOException on I/O error.
+     */
+    protected void grow() throws IOException {
+        rebuild(SLOT_SIZE, 2 * _capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rehash all intact records into a new file with the specified capacity
+     * and replace the current file with it.
+     *
+     * @param slotSize the size of the slots in the current file;
+     *        {@link #UNCHECKED_SLOT_SIZE} if they have no checksums.
+     * @param newCapacity the number of slots in the new file.
+     * @throws IOException on I/O error.
+     */
+    protected void rebuild(int slotSize, int newCapacity) throws IOException {
+        File tempFile = new File(_file.getPath() + ".tmp");
+        RandomAccessFile newRaf = create(tempFile, newCapacity);
+        try {
+            FileChannel newChannel = newRaf.getChannel();
+            ByteBuffer slot = ByteBuffer.allocate(slotSize);
+            int count = 0;
+            for (int i = 0; i < _capacity; ++i) {
+                slot.clear();
+                readFully(_channel, slot, HEADER_SIZE + (long) i * slotSize);
+                int flags = slot.getInt(16);
+                if ((flags & USED) != 0 && (slotSize == UNCHECKED_SLOT_SIZE || isValid(slot, 0))) {
+                    UUID uuid = new UUID(slot.getLong(0), slot.getLong(8));
+                    int index = probe(newChannel, newCapacity, uuid);
+                    if (index < 0) {
+                        writeSlot(newChannel, -index - 1, uuid.getMostSignificantBits(),
+                                  uuid.getLeastSignificantBits(), flags);
+                        ++count;
+                    }
+                }
+            }
+            writeCount(newChannel, count);
+            newChannel.force(false);
+        } finally {
+            newRaf.close();
+        }
+
+        close();
+        try {
+            Files.move(tempFile.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Find the slot holding the specified UUID, or the empty slot where it
+     * would be inserted.
+     *
+     * On return, _slot contains the contents of the returned slot.
+     *
+     * @param channel the file channel.
+     * @param capacity the number of slots in the file; a power of two.
+     * @param uuid the UUID.
+     * @return the index of the slot holding the UUID, or if absent, -(index +
+     *         1) where index is the empty slot where it would be inserted.
+     * @throws IOException on I/O error.
+     */
+    protected int probe(FileChannel channel, int capacity, UUID uuid) throws IOException {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long hash = msb ^ lsb;
+        hash ^= (hash >>> 32);
+        hash ^= (hash >>> 16);
+        int mask = capacity - 1;
+        int index = (int) hash & mask;
+        for (int i = 0; i < capacity; ++i) {
+            _slot.clear();
+            readFully(channel, _slot, slotPosition(index));
+            if ((_slot.getInt(16) & USED) == 0) {
+                return -index - 1;
+            }
+            if (_slot.getLong(0) == msb && _slot.getLong(8) == lsb) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        // Unreachable, since the table is never more than half full.
+        throw new IOException(_file.getName() + " is full");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a new, empty file with the specified capacity.
+     *
+     * @param file the file.
+     * @param capacity the number of slots; a power of two.
+     * @return the open file.
+     * @throws IOException on I/O error.
+     */
+    protected static RandomAccessFile create(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.setLength(slotPosition(capacity));
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(0);
+        header.flip();
+        writeFully(raf.getChannel(), header, 0);
+        return raf;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the record count to the header.
+     *
+     * @param channel the file channel.
+     * @param count the record count.
+     * @throws IOException on I/O error.
+     */
+    protected static void writeCount(FileChannel channel, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(count);
+        buffer.flip();
+        writeFully(channel, buffer, 12);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a slot.
+     *
+     * @param channel the file channel.
+     * @param index the slot index.
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @param flags the flags.
+     * @throws IOException on I/O error.
+     */
+    protected static void writeSlot(FileChannel channel, int index, long msb, long lsb, int flags) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putLong(msb).putLong(lsb).putInt(flags).putInt(checksum(msb, lsb, flags));
+        slot.flip();
+        writeFully(channel, slot, slotPosition(index));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the checksum of the slot at the specified offset in a
+     * buffer matches its contents.
+     *
+     * @param buffer the buffer.
+     * @param offset the offset of the slot.
+     * @return true if the slot is intact.
+     */
+    protected static boolean isValid(ByteBuffer buffer, int offset) {
+        return buffer.getInt(offset + 20) == checksum(buffer.getLong(offset), buffer.getLong(offset + 8),
+                                                      buffer.getInt(offset + 16));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the checksum of a slot's contents.
+     *
+     * The checksum is never 0, so that a slot whose checksum was not written
+     * is detected.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @param flags the flags.
+     * @return the checksum.
+     */
+    protected static int checksum(long msb, long lsb, int flags) {
+        long hash = (msb * 0x9E3779B97F4A7C15L) ^ (lsb * 0xC2B2AE3D27D4EB4FL) ^ (flags * 0x165667B19E3779F9L);
+        hash ^= (hash >>> 29);
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= (hash >>> 32);
+        int checksum = (int) hash;
+        return (checksum != 0) ? checksum : 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the file position of the specified slot.
+     *
+     * @param index the slot index.
+     * @return the file position.
+     */
+    protected static long slotPosition(int index) {
+        return HEADER_SIZE + (long) index * SLOT_SIZE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Fill the buffer from the specified file position.
+     *
+     * @param channel the file channel.
+     * @param buffer the buffer.
+     * @param position the file position.
+     * @throws IOException on I/O error, or if the file is too short.
+     */
+    protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            position += count;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the whole buffer at the specified file position.
+     *
+     * @param channel the file channel.
+     * @param buffer the buffer.
+     * @param position the file position.
+     * @throws IOException on I/O error.
+     */
+    protected static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Magic number identifying the file format.
+     */
+    protected static final int MAGIC = 0x57434D50;
+
+    /**
+     * File format version.
+     */
+    protected static final int VERSION = 2;
+
+    /**
+     * File format version of files written before slots had checksums.
+     */
+    protected static final int UNCHECKED_VERSION = 1;
+
+    /**
+     * Size of the header in bytes.
+     */
+    protected static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of a slot in bytes: a UUID, an int of flags and an int checksum.
+     */
+    protected static final int SLOT_SIZE = 24;
+
+    /**
+     * Size of a slot in files of {@link #UNCHECKED_VERSION}: a UUID and an int
+     * of flags.
+     */
+    protected static final int UNCHECKED_SLOT_SIZE = 20;
+
+    /**
+     * Number of slots read at a time when the file is opened.
+     */
+    protected static final int SCAN_SLOTS = 1024;
+
+    /**
+     * Number of slots in a new file.
+     */
+    protected static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The file.
+     */
+    protected File _file;
+
+    /**
+     * The open file.
+     */
+    protected RandomAccessFile _raf;
+
+    /**
+     * The channel of the open file.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * Number of slots.
+     */
+    protected int _capacity;
+
+    /**
+     * Number of slots in use.
+     */
+    protected int _count;
+
+    /**
+     * Buffer holding the most recently probed slot.
+     */
+    protected ByteBuffer _slot = ByteBuffer.allocate(SLOT_SIZE);
+} // class PreferencesFile
@@ -0,0 +1,315 @@
+package io.totemo.wingcommander;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+// ----------------------------------------------------------------------------
+/**
+ * Persistent storage of {@link PlayerPreferences}, with write-behind to disk.
+ *
+ * Preferences are stored as bit flags in a {@link PreferencesFile}. Only the
+ * preferences of online players are held in memory: they are read from disk
+ * during AsyncPlayerPreLoginEvent, before the player's {@link PlayerState} is
+ * created, and are forgotten when the player quits.
+ *
+ * Players who were already online when the plugin was enabled are read on
+ * the background thread instead, and see the default preferences until that
+ * completes.
+ *
+ * The server thread reads and updates preferences in memory. Updated records
+ * are marked dirty and a background thread periodically writes them to disk,
+ * so the server thread does no file I/O.
+ */
+public class PreferencesStore {
+    /**
+     * Constructor.
+     *
+     * @param file the binary preferences file.
+     * @param legacyFile the YAML players file used by earlier versions, which
+     *        is migrated to the binary file if that does not yet exist.
+     */
+    public PreferencesStore(File file, File legacyFile) {
+        _file = new PreferencesFile(file);
+        _legacyFile = legacyFile;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the preferences file, migrating the legacy YAML file if necessary,
+     * and start the background thread that saves changes.
+     *
+     * @param flushSeconds the period in seconds between writes of changed
+     *        preferences.
+     * @throws IOException if the preferences file cannot be opened.
+     */
+    public void start(long flushSeconds) throws IOException {
+        boolean migrate = !_file.exists() && _legacyFile.isFile();
+        _file.open();
+        if (migrate) {
+            migrate();
+        }
+
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, WingCommander.PLUGIN.getName() + " preferences writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write any outstanding changes, stop the background thread and close the
+     * preferences file.
+     *
+     * The final write happens on the background thread; the caller waits a
+     * bounded time for it to complete.
+     */
+    public void stop() {
+        if (_executor == null) {
+            return;
+        }
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                _file.close();
+            }
+        });
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                WingCommander.PLUGIN.getLogger().warning("Timed out saving player data.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        _executor = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the preferences of the player with the specified UUID from disk
+     * into memory.
+     *
+     * This method does file I/O and is intended to be called from
+     * AsyncPlayerPreLoginEvent.
+     *
+     * @param uuid the player's UUID.
+     */
+    public void preload(UUID uuid) {
+        _loaded.put(uuid, read(uuid));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the preferences of the player with the specified UUID from disk
+     * into memory on the background thread.
+     *
+     * This is intended for players who were online when the plugin was
+     * enabled, and so never fired AsyncPlayerPreLoginEvent. If the player's
+     * preferences are put into the store before they are read, the read
+     * result is discarded.
+     *
+     * @param uuid the player's UUID.
+     * @param onLoaded a task run on the background thread once the
+     *        preferences read from disk are in memory; it is not run if they
+     *        were discarded.
+     */
+    public void preloadAsync(final UUID uuid, final Runnable onLoaded) {
+        if (_executor == null) {
+            return;
+        }
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (_loaded.putIfAbsent(uuid, read(uuid)) == null) {
+                    onLoaded.run();
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Forget the in-memory preferences of the player with the specified UUID.
+     *
+     * Any unsaved changes are still written to disk.
+     *
+     * @param uuid the player's UUID.
+     */
+    public void unload(UUID uuid) {
+        _loaded.remove(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the preferences of the player with the specified UUID.
+     *
+     * Preferences are normally already in memory, having been loaded by
+     * {@link #preload(UUID)} or {@link #preloadAsync(UUID, Runnable)}. This
+     * method never reads from disk.
+     *
+     * @param uuid the player's UUID.
+     * @return the player's preferences, or the defaults if they have not been
+     *         loaded yet; never null.
+     */
+    public PlayerPreferences get(UUID uuid) {
+        PlayerPreferences preferences = _loaded.get(uuid);
+        return (preferences != null) ? preferences : PlayerPreferences.DEFAULTS;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the preferences of the player with the specified UUID and
+     * schedule them to be written to disk.
+     *
+     * This method must only be called from the server thread.
+     *
+     * @param uuid the player's UUID.
+     * @param preferences the new preferences.
+     */
+    public void put(UUID uuid, PlayerPreferences preferences) {
+        _loaded.put(uuid, preferences);
+        _dirty.put(uuid, preferences);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the preferences of the player with the specified UUID, preferring
+     * changes not yet written to disk.
+     *
+     * @param uuid the player's UUID.
+     * @return the player's preferences; the defaults if none are stored.
+     */
+    protected PlayerPreferences read(UUID uuid) {
+        // A player who relogs quickly may have changes that are not on disk.
+        PlayerPreferences preferences = _dirty.get(uuid);
+        if (preferences != null) {
+            return preferences;
+        }
+        try {
+            int flags = _file.read(uuid);
+            return (flags != 0) ? PlayerPreferences.fromFlags(flags) : PlayerPreferences.DEFAULTS;
+        } catch (IOException ex) {
+            WingCommander.PLUGIN.getLogger().warning("Unable to load player data: " + ex.getMessage());
+            return PlayerPreferences.DEFAULTS;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write all dirty records to disk.
+     *
+     * Records are only removed from the dirty set once they are on disk, so
+     * that {@link #read(UUID)} always sees the latest preferences.
+     */
+    protected void flush() {
+        if (_dirty.isEmpty()) {
+            return;
+        }
+
+        try {
+            Iterator<Entry<UUID, PlayerPreferences>> it = _dirty.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<UUID, PlayerPreferences> entry = it.next();
+                PlayerPreferences preferences = entry.getValue();
+                _file.write(entry.getKey(), preferences.toFlags());
+                // Only remove the entry if it was not replaced since it was read.
+                _dirty.remove(entry.getKey(), preferences);
+            }
+            _file.force();
+        } catch (IOException ex) {
+            WingCommander.PLUGIN.getLogger().warning("Unable to save player data: " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy all preferences from the legacy YAML file into the preferences
+     * file, then rename the YAML file so that it is not migrated again.
+     *
+     * @throws IOException on I/O error.
+     */
+    protected void migrate() throws IOException {
+        YamlConfiguration yaml = YamlConfiguration.loadConfiguration(_legacyFile);
+        int count = 0;
+        for (String key : yaml.getKeys(false)) {
+            ConfigurationSection section = yaml.getConfigurationSection(key);
+            if (section == null) {
+                continue;
+            }
+            try {
+                PlayerPreferences preferences = new PlayerPreferences(section.getBoolean("altimeter", true),
+                                                                      section.getBoolean("speedometer", true),
+                                                                      section.getBoolean("wingometer", true),
+                                                                      section.getBoolean("pitchmeter", true));
+                _file.write(UUID.fromString(key), preferences.toFlags());
+                ++count;
+            } catch (IllegalArgumentException ex) {
+                WingCommander.PLUGIN.getLogger().warning("Invalid player UUID in " + _legacyFile.getName() + ": " + key);
+            }
+        }
+        _file.force();
+
+        File migratedFile = new File(_legacyFile.getPath() + ".migrated");
+        if (!_legacyFile.renameTo(migratedFile)) {
+            WingCommander.PLUGIN.getLogger().warning("Unable to rename " + _legacyFile.getName() +
+                                                     " to " + migratedFile.getName());
+        }
+        WingCommander.PLUGIN.getLogger().info("Migrated " + count + " player records from " + _legacyFile.getName() + ".");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum time in seconds to wait for the final write when stopping.
+     */
+    protected static final long STOP_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The preferences file.
+     */
+    protected PreferencesFile _file;
+
+    /**
+     * The YAML players file used by earlier versions.
+     */
+    protected File _legacyFile;
+
+    /**
+     * Preferences of players who are logging in or online.
+     *
+     * Written by login threads and read by the server thread.
+     */
+    protected ConcurrentHashMap<UUID, PlayerPreferences> _loaded = new ConcurrentHashMap<UUID, PlayerPreferences>();
+
+    /**
+     * Preferences that have changed since they were last written, shared
+     * between the server thread and the background thread.
+     */
+    protected ConcurrentHashMap<UUID, PlayerPreferences> _dirty = new ConcurrentHashMap<UUID, PlayerPreferences>();
+
+    /**
+     * Runs the periodic write on a background thread.
+     */
+    protected ScheduledExecutorService _executor;
+} // class PreferencesStore
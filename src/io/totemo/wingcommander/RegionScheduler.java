@@ -0,0 +1,336 @@
+package io.totemo.wingcommander;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link FlightScheduler} for servers that tick regions of the world on
+ * separate threads (Folia).
+ *
+ * Each active player is ticked by a repeating task on their own entity
+ * scheduler, which runs on the thread of the region that owns them, so
+ * players in different regions are ticked in parallel. As with
+ * {@link GliderRegistry}, a player's task is only scheduled while
+ * {@link PlayerState#needsTick()} is true.
+ *
+ * The tick count is advanced by a task on the global region scheduler. Each
+ * thread has its own {@link ThrustBatch}, which is applied to each player as
+ * soon as their thrust is decided. Its {@link ExhaustEmitter} only sends
+ * exhaust effects to players owned by the current region.
+ *
+ * The region scheduler API is not part of the Bukkit API this plugin is
+ * compiled against, so it is accessed by reflection.
+ */
+public class RegionScheduler extends FlightScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the server ticks regions on separate threads.
+     *
+     * @return true if the server ticks regions on separate threads.
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @throws ReflectiveOperationException if the region scheduler API is not
+     *         as expected.
+     */
+    public RegionScheduler() throws ReflectiveOperationException {
+        String schedulerPackage = "io.papermc.paper.threadedregions.scheduler.";
+        Class<?> entitySchedulerClass = Class.forName(schedulerPackage + "EntityScheduler");
+        Class<?> globalSchedulerClass = Class.forName(schedulerPackage + "GlobalRegionScheduler");
+        Class<?> taskClass = Class.forName(schedulerPackage + "ScheduledTask");
+        _getEntityScheduler = Entity.class.getMethod("getScheduler");
+        _entityRun = entitySchedulerClass.getMethod("run", Plugin.class, Consumer.class, Runnable.class);
+        _entityRunAtFixedRate = entitySchedulerClass.getMethod("runAtFixedRate", Plugin.class, Consumer.class,
+                                                               Runnable.class, long.class, long.class);
+        _getGlobalScheduler = Bukkit.class.getMethod("getGlobalRegionScheduler");
+        _globalRunAtFixedRate = globalSchedulerClass.getMethod("runAtFixedRate", Plugin.class, Consumer.class,
+                                                               long.class, long.class);
+        _globalExecute = globalSchedulerClass.getMethod("execute", Plugin.class, Runnable.class);
+        _isOwnedByCurrentRegion = Bukkit.class.getMethod("isOwnedByCurrentRegion", Entity.class);
+        _isChunkOwnedByCurrentRegion = Bukkit.class.getMethod("isOwnedByCurrentRegion", World.class,
+                                                              int.class, int.class);
+        _cancel = taskClass.getMethod("cancel");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#start(org.bukkit.plugin.Plugin,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void start(Plugin plugin, final Runnable everyTick) {
+        _plugin = plugin;
+        Object globalScheduler = invoke(_getGlobalScheduler, null);
+        _globalTask = invoke(_globalRunAtFixedRate, globalScheduler, plugin, new Consumer<Object>() {
+            @Override
+            public void accept(Object task) {
+                // Only this task writes the count.
+                _tickCount = _tickCount + 1;
+                if (everyTick != null) {
+                    everyTick.run();
+                }
+            }
+        }, 1L, 1L);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#stop()
+     */
+    @Override
+    public void stop() {
+        if (_globalTask != null) {
+            invoke(_cancel, _globalTask);
+            _globalTask = null;
+        }
+        for (Object task : _tasks.values()) {
+            invoke(_cancel, task);
+        }
+        _tasks.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#add(io.totemo.wingcommander.PlayerState)
+     */
+    @Override
+    public void add(final PlayerState state) {
+        if (_tasks.containsKey(state)) {
+            return;
+        }
+        Object scheduler = invoke(_getEntityScheduler, state._player);
+        Object task = invoke(_entityRunAtFixedRate, scheduler, _plugin, new Consumer<Object>() {
+            @Override
+            public void accept(Object task) {
+                tick(state, task);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // The player has left.
+                _tasks.remove(state);
+            }
+        }, 1L, 1L);
+
+        // Null if the player has already left.
+        if (task != null) {
+            _tasks.put(state, task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#remove(io.totemo.wingcommander.PlayerState)
+     */
+    @Override
+    public void remove(PlayerState state) {
+        Object task = _tasks.remove(state);
+        if (task != null) {
+            invoke(_cancel, task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule the task for the next tick of the player's region.
+     *
+     * @see io.totemo.wingcommander.FlightScheduler#execute(org.bukkit.entity.Player,
+     *      java.lang.Runnable)
+     */
+    @Override
+    public void execute(Player player, final Runnable task) {
+        Object scheduler = invoke(_getEntityScheduler, player);
+        invoke(_entityRun, scheduler, _plugin, new Consumer<Object>() {
+            @Override
+            public void accept(Object scheduledTask) {
+                task.run();
+            }
+        }, null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Schedule the task on the global region.
+     *
+     * @see io.totemo.wingcommander.FlightScheduler#executeGlobal(java.lang.Runnable)
+     */
+    @Override
+    public void executeGlobal(Runnable task) {
+        invoke(_globalExecute, invoke(_getGlobalScheduler, null), _plugin, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#getTickCount()
+     */
+    @Override
+    public long getTickCount() {
+        return _tickCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#isOwnedByCurrentRegion(org.bukkit.World,
+     *      int, int)
+     */
+    @Override
+    public boolean isOwnedByCurrentRegion(World world, int chunkX, int chunkZ) {
+        return (Boolean) invoke(_isChunkOwnedByCurrentRegion, null, world, chunkX, chunkZ);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.wingcommander.FlightScheduler#getThrustBatch()
+     */
+    @Override
+    public ThrustBatch getThrustBatch() {
+        return _thrust.get();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Tick one player, on the thread of the region that owns them.
+     *
+     * @param state the player's state.
+     * @param task the player's repeating task, cancelled when the player no
+     *        longer needs to be ticked.
+     */
+    protected void tick(PlayerState state, Object task) {
+        long tick = _tickCount;
+        ThrustBatch thrust = _thrust.get();
+        state.onTick(tick, thrust);
+        thrust.apply(tick);
+        state.onTickAfterThrust(null);
+        if (!state.needsTick()) {
+            _tasks.remove(state);
+            invoke(_cancel, task);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invoke a region scheduler API method.
+     *
+     * @param method the method.
+     * @param target the object whose method is invoked; null for static
+     *        methods.
+     * @param args the arguments.
+     * @return the result.
+     * @throws IllegalStateException if the method cannot be invoked.
+     */
+    protected static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The plugin that owns the scheduled tasks.
+     */
+    protected Plugin _plugin;
+
+    /**
+     * Entity.getScheduler().
+     */
+    protected Method _getEntityScheduler;
+
+    /**
+     * EntityScheduler.run(Plugin, Consumer, Runnable).
+     */
+    protected Method _entityRun;
+
+    /**
+     * EntityScheduler.runAtFixedRate(Plugin, Consumer, Runnable, long, long).
+     */
+    protected Method _entityRunAtFixedRate;
+
+    /**
+     * Bukkit.getGlobalRegionScheduler().
+     */
+    protected Method _getGlobalScheduler;
+
+    /**
+     * GlobalRegionScheduler.runAtFixedRate(Plugin, Consumer, long, long).
+     */
+    protected Method _globalRunAtFixedRate;
+
+    /**
+     * GlobalRegionScheduler.execute(Plugin, Runnable).
+     */
+    protected Method _globalExecute;
+
+    /**
+     * ScheduledTask.cancel().
+     */
+    protected Method _cancel;
+
+    /**
+     * Bukkit.isOwnedByCurrentRegion(Entity).
+     */
+    protected Method _isOwnedByCurrentRegion;
+
+    /**
+     * Bukkit.isOwnedByCurrentRegion(World, int, int).
+     */
+    protected Method _isChunkOwnedByCurrentRegion;
+
+    /**
+     * The task on the global region scheduler that advances the tick count.
+     */
+    protected Object _globalTask;
+
+    /**
+     * Map from the state of each player who is ticked to their repeating
+     * task.
+     */
+    protected ConcurrentHashMap<PlayerState, Object> _tasks = new ConcurrentHashMap<PlayerState, Object>();
+
+    /**
+     * Number of ticks of the global region since ticking started.
+     */
+    protected volatile long _tickCount;
+
+    /**
+     * Batch used to apply thrust, for each thread.
+     */
+    protected ThreadLocal<ThrustBatch> _thrust = new ThreadLocal<ThrustBatch>() {
+        @Override
+        protected ThrustBatch initialValue() {
+            return new ThrustBatch(new ExhaustEmitter(new Predicate<Player>() {
+                @Override
+                public boolean test(Player player) {
+                    return (Boolean) invoke(_isOwnedByCurrentRegion, null, player);
+                }
+            }));
+        }
+    };
+} // class RegionScheduler
@@ -0,0 +1,220 @@
+package io.totemo.wingcommander;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Performance statistics: latency histograms of the hot paths and counters of
+ * the work they do.
+ *
+ * Timing a section of code looks like:
+ *
+ * <pre>
+ * long start = WingCommander.STATS.start();
+ * ...
+ * WingCommander.STATS.ACCELERATE.record(start);
+ * </pre>
+ *
+ * When timing is disabled in the configuration, {@link #start()} returns 0 and
+ * nothing is recorded, so the cost is a field read and a comparison.
+ * Counters are always maintained.
+ *
+ * Statistics are not synchronized. On region-threaded servers, where players
+ * are ticked on several threads, some updates may be lost, so statistics are
+ * approximate. The Tick histogram is only recorded when all players are ticked
+ * in one loop.
+ */
+public class Stats {
+    /**
+     * Time taken by the plugin in each server tick.
+     */
+    public final LatencyHistogram TICK = new LatencyHistogram("Tick");
+
+    /**
+     * Time taken by {@link PlayerState#onTick(long, ThrustBatch)} and
+     * {@link PlayerState#onTickAfterThrust(GaugePipeline)}, per player, excluding thrust.
+     */
+    public final LatencyHistogram PLAYER_TICK = new LatencyHistogram("Player tick");
+
+    /**
+     * Time taken by {@link ThrustBatch#apply(long)}, per batch.
+     */
+    public final LatencyHistogram ACCELERATE = new LatencyHistogram("Thrust");
+
+    /**
+     * Time taken by {@link PlayerState#updateBossBars(GaugePipeline)}.
+     */
+    public final LatencyHistogram UPDATE_BOSS_BARS = new LatencyHistogram("Gauges");
+
+    /**
+     * Time taken by {@link GaugePipeline#apply()}, including waiting for the
+     * workers, per tick.
+     */
+    public final LatencyHistogram GAUGE_APPLY = new LatencyHistogram("Gauge apply");
+
+    /**
+     * Time taken by {@link PlayerState#checkVacuumSuffocation()}.
+     */
+    public final LatencyHistogram VACUUM = new LatencyHistogram("Vacuum");
+
+    /**
+     * Time taken by WingCommander.onPlayerInteract().
+     */
+    public final LatencyHistogram INTERACT = new LatencyHistogram("Interact");
+
+    /**
+     * Number of take-offs.
+     */
+    public long TAKEOFFS;
+
+    /**
+     * Number of player ticks in which thrust was applied.
+     */
+    public long THRUST_TICKS;
+
+    /**
+     * Number of BossBar updates sent by gauges.
+     */
+    public long BOSS_BAR_UPDATES;
+
+    /**
+     * Number of BossBar updates skipped by gauges because the displayed value
+     * did not change.
+     */
+    public long BOSS_BAR_UPDATES_SKIPPED;
+
+    /**
+     * Number of airspace lookups that tested zones.
+     */
+    public long AIRSPACE_CHECKS;
+
+    /**
+     * Number of airspace lookups answered from a player's cache.
+     */
+    public long AIRSPACE_CHECKS_SKIPPED;
+
+    /**
+     * Number of exhaust particles sent to players.
+     */
+    public long PARTICLES;
+
+    /**
+     * Number of engine sounds sent to players.
+     */
+    public long SOUNDS;
+
+    /**
+     * Number of exhaust particle and sound packets not sent because the
+     * per-tick packet budget was exhausted.
+     */
+    public long EXHAUST_PACKETS_DROPPED;
+
+    /**
+     * Number of TNT entities spawned.
+     */
+    public long TNT_SPAWNED;
+
+    /**
+     * Number of TNT throws refused by the rate limit or the live TNT limits.
+     */
+    public long TNT_THROTTLED;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the start time of a timed section of code.
+     *
+     * @return System.nanoTime(), or 0 if timing is disabled.
+     */
+    public long start() {
+        if (WingCommander.CONFIG.STATS_TIMING) {
+            long now = System.nanoTime();
+            // 0 signifies "disabled", so avoid it.
+            return (now != 0) ? now : 1;
+        } else {
+            return 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard all statistics.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : getHistograms()) {
+            histogram.reset();
+        }
+        TAKEOFFS = 0;
+        THRUST_TICKS = 0;
+        BOSS_BAR_UPDATES = 0;
+        BOSS_BAR_UPDATES_SKIPPED = 0;
+        PARTICLES = 0;
+        SOUNDS = 0;
+        EXHAUST_PACKETS_DROPPED = 0;
+        AIRSPACE_CHECKS = 0;
+        AIRSPACE_CHECKS_SKIPPED = 0;
+        TNT_SPAWNED = 0;
+        TNT_THROTTLED = 0;
+        _resetTime = System.currentTimeMillis();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Describe the statistics to the specified command sender.
+     *
+     * @param sender the command sender.
+     */
+    public void report(CommandSender sender) {
+        long seconds = (System.currentTimeMillis() - _resetTime) / 1000;
+        sender.sendMessage(ChatColor.GOLD + "Statistics over the last " + seconds + " seconds:");
+        if (!WingCommander.CONFIG.STATS_TIMING) {
+            sender.sendMessage(ChatColor.GRAY + "Timing is disabled in the configuration.");
+        }
+        for (LatencyHistogram histogram : getHistograms()) {
+            sender.sendMessage(ChatColor.GOLD + histogram.getName() + ": " +
+                               ChatColor.WHITE + "p50 " + ChatColor.YELLOW + formatMicros(histogram.getPercentile(50)) +
+                               ChatColor.WHITE + ", p99 " + ChatColor.YELLOW + formatMicros(histogram.getPercentile(99)) +
+                               ChatColor.WHITE + ", max " + ChatColor.YELLOW + formatMicros(histogram.getMax()) +
+                               ChatColor.WHITE + " (" + histogram.getCount() + " samples)");
+        }
+        sender.sendMessage(ChatColor.GOLD + "Take-offs: " + ChatColor.YELLOW + TAKEOFFS +
+                           ChatColor.GOLD + ", thrust ticks: " + ChatColor.YELLOW + THRUST_TICKS +
+                           ChatColor.GOLD + ", TNT: " + ChatColor.YELLOW + TNT_SPAWNED +
+                           ChatColor.GOLD + ", throttled: " + ChatColor.YELLOW + TNT_THROTTLED);
+        sender.sendMessage(ChatColor.GOLD + "Gauge updates sent: " + ChatColor.YELLOW + BOSS_BAR_UPDATES +
+                           ChatColor.GOLD + ", skipped: " + ChatColor.YELLOW + BOSS_BAR_UPDATES_SKIPPED);
+        sender.sendMessage(ChatColor.GOLD + "Particles: " + ChatColor.YELLOW + PARTICLES +
+                           ChatColor.GOLD + ", sounds: " + ChatColor.YELLOW + SOUNDS +
+                           ChatColor.GOLD + ", over budget: " + ChatColor.YELLOW + EXHAUST_PACKETS_DROPPED);
+        sender.sendMessage(ChatColor.GOLD + "Airspace checks: " + ChatColor.YELLOW + AIRSPACE_CHECKS +
+                           ChatColor.GOLD + ", cached: " + ChatColor.YELLOW + AIRSPACE_CHECKS_SKIPPED);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all histograms, in the order they are reported.
+     *
+     * @return all histograms.
+     */
+    protected LatencyHistogram[] getHistograms() {
+        return new LatencyHistogram[] { TICK, PLAYER_TICK, ACCELERATE, UPDATE_BOSS_BARS, GAUGE_APPLY, VACUUM,
+                                     INTERACT };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format a duration in nanoseconds as microseconds.
+     *
+     * @param nanos the duration in nanoseconds.
+     * @return the duration formatted as microseconds.
+     */
+    protected static String formatMicros(long nanos) {
+        return String.format("%.1fµs", nanos / 1000.0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Time when statistics were last reset.
+     */
+    protected long _resetTime = System.currentTimeMillis();
+} // class Stats
@@ -0,0 +1,262 @@
+package io.totemo.wingcommander;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+// ----------------------------------------------------------------------------
+/**
+ * Limits the number of live TNT entities spawned by the plugin, in each chunk
+ * and across the server.
+ *
+ * Room for a TNT is reserved before it is spawned, by checking the limits and
+ * recording an entry in one synchronized step, so that threads throwing TNT
+ * at the same time cannot together exceed a limit. Once the TNT has spawned,
+ * the reservation is bound to its entity ID, and the TNT is tracked in the
+ * chunk where it was spawned until it explodes. In case it is removed without
+ * exploding, for example by a chunk unloading or a cancelled explosion, each
+ * entry also expires a short time after the TNT's fuse would have run out.
+ * Expired entries are purged when a limit is reached and otherwise every
+ * {@link #PURGE_PERIOD_TICKS}, so in normal operation, reserving and tracking
+ * a TNT costs a few hash map operations.
+ */
+public class TNTBudget {
+    /**
+     * Period in ticks between purges of expired entries, when no limit is
+     * reached.
+     */
+    public static final long PURGE_PERIOD_TICKS = 200;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reserve room for a TNT about to be spawned in the specified chunk, if
+     * that does not exceed the configured limits.
+     *
+     * The caller must then either {@link #bind(int, int, long)} the reservation to
+     * the spawned TNT or, if the spawn fails, {@link #release(int)} it.
+     *
+     * @param config the configuration.
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @param tick the current tick number.
+     * @param expiryTick the tick after which the reservation lapses if it is
+     *        neither bound nor released.
+     * @return the reservation, a negative number, or 0 if a limit has been
+     *         reached.
+     */
+    public synchronized int tryReserve(Configuration config, String worldName, int chunkX, int chunkZ,
+                                       long tick, long expiryTick) {
+        if (tick >= _nextPurgeTick || isFull(config, worldName, chunkX, chunkZ)) {
+            purge(tick);
+        }
+        if (isFull(config, worldName, chunkX, chunkZ)) {
+            return 0;
+        }
+
+        // Reservations are negative, so they never collide with entity IDs.
+        if (--_lastReservation >= 0) {
+            _lastReservation = -1;
+        }
+        ChunkKey chunk = new ChunkKey(worldName, chunkX, chunkZ);
+        _live.put(_lastReservation, new LiveTNT(chunk, expiryTick));
+        Integer count = _chunkCounts.get(chunk);
+        _chunkCounts.put(chunk, (count == null) ? 1 : count + 1);
+        return _lastReservation;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Track the TNT spawned for a reservation by its entity ID.
+     *
+     * @param reservation the reservation returned by
+     *        {@link #tryReserve(Configuration, String, int, int, long, long)}.
+     * @param entityId the entity ID of the spawned TNT.
+     * @param expiryTick the tick after which the TNT is assumed to be gone.
+     */
+    public synchronized void bind(int reservation, int entityId, long expiryTick) {
+        LiveTNT tnt = _live.remove(reservation);
+        if (tnt != null) {
+            LiveTNT previous = _live.put(entityId, new LiveTNT(tnt._chunk, expiryTick));
+            if (previous != null) {
+                decrement(previous._chunk);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop tracking a TNT, because it has exploded, or cancel a reservation
+     * whose TNT could not be spawned.
+     *
+     * @param entityId the entity ID or reservation; entities not spawned by
+     *        the plugin are ignored.
+     */
+    public synchronized void release(int entityId) {
+        LiveTNT tnt = _live.remove(entityId);
+        if (tnt != null) {
+            decrement(tnt._chunk);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of tracked TNT.
+     *
+     * @return the number of tracked TNT.
+     */
+    public synchronized int size() {
+        return _live.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if either limit has been reached.
+     *
+     * @param config the configuration.
+     * @param worldName the name of the world.
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return true if either limit has been reached.
+     */
+    protected boolean isFull(Configuration config, String worldName, int chunkX, int chunkZ) {
+        if (config.TNT_MAX_LIVE > 0 && _live.size() >= config.TNT_MAX_LIVE) {
+            return true;
+        }
+        if (config.TNT_MAX_PER_CHUNK > 0) {
+            Integer count = _chunkCounts.get(new ChunkKey(worldName, chunkX, chunkZ));
+            return count != null && count >= config.TNT_MAX_PER_CHUNK;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop tracking TNT that has expired.
+     *
+     * @param tick the current tick number.
+     */
+    protected void purge(long tick) {
+        _nextPurgeTick = tick + PURGE_PERIOD_TICKS;
+        Iterator<LiveTNT> it = _live.values().iterator();
+        while (it.hasNext()) {
+            LiveTNT tnt = it.next();
+            if (tnt._expiryTick < tick) {
+                it.remove();
+                decrement(tnt._chunk);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decrement the count of live TNT in a chunk.
+     *
+     * @param chunk the chunk.
+     */
+    protected void decrement(ChunkKey chunk) {
+        Integer count = _chunkCounts.get(chunk);
+        if (count == null || count <= 1) {
+            _chunkCounts.remove(chunk);
+        } else {
+            _chunkCounts.put(chunk, count - 1);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Identifies a chunk in a world.
+     */
+    protected static final class ChunkKey {
+        /**
+         * Constructor.
+         *
+         * @param worldName the name of the world.
+         * @param x the chunk X coordinate.
+         * @param z the chunk Z coordinate.
+         */
+        ChunkKey(String worldName, int x, int z) {
+            _worldName = worldName;
+            _x = x;
+            _z = z;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey key = (ChunkKey) other;
+            return _x == key._x && _z == key._z && _worldName.equals(key._worldName);
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return 31 * (31 * _worldName.hashCode() + _x) + _z;
+        }
+
+        /**
+         * The name of the world.
+         */
+        final String _worldName;
+
+        /**
+         * The chunk coordinates.
+         */
+        final int _x, _z;
+    } // class ChunkKey
+
+    // ------------------------------------------------------------------------
+    /**
+     * A tracked TNT.
+     */
+    protected static final class LiveTNT {
+        /**
+         * Constructor.
+         *
+         * @param chunk the chunk where the TNT was spawned.
+         * @param expiryTick the tick after which the TNT is assumed to be gone.
+         */
+        LiveTNT(ChunkKey chunk, long expiryTick) {
+            _chunk = chunk;
+            _expiryTick = expiryTick;
+        }
+
+        /**
+         * The chunk where the TNT was spawned.
+         */
+        final ChunkKey _chunk;
+
+        /**
+         * The tick after which the TNT is assumed to be gone.
+         */
+        final long _expiryTick;
+    } // class LiveTNT
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from entity ID to tracked TNT.
+     */
+    protected HashMap<Integer, LiveTNT> _live = new HashMap<Integer, LiveTNT>();
+
+    /**
+     * Map from chunk to the number of tracked TNT spawned in it.
+     */
+    protected HashMap<ChunkKey, Integer> _chunkCounts = new HashMap<ChunkKey, Integer>();
+
+    /**
+     * The most recent reservation; reservations count down from -1.
+     */
+    protected int _lastReservation;
+
+    /**
+     * The tick from which expired entries are next purged, whether or not a
+     * limit is reached.
+     */
+    protected long _nextPurgeTick;
+} // class TNTBudget
@@ -0,0 +1,269 @@
+package io.totemo.wingcommander;
+
+import java.util.Arrays;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+// ----------------------------------------------------------------------------
+/**
+ * Applies thrust to all thrusting players in one batch.
+ *
+ * The positions, look directions and velocities of thrusting players are
+ * copied from their {@link FlightSnapshot}s into primitive arrays by
+ * {@link #add(PlayerState, double)}. Then
+ * {@link #apply(long)} computes all of the new velocities in a single loop over
+ * those arrays. It writes them back and queues the exhaust effects in an
+ * {@link ExhaustEmitter}, which sends them to nearby players. The
+ * velocity is clamped by comparing squared lengths, so the square root is
+ * only taken for players over the speed limit.
+ *
+ * No objects are allocated per player: one Vector is reused to set every
+ * player's velocity, and the arrays only grow.
+ *
+ * A batch is only used by one thread: the server thread or, on servers with
+ * region-threaded ticking, the thread of one region.
+ */
+public class ThrustBatch {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor for a batch whose exhaust can be sent to every player.
+     */
+    public ThrustBatch() {
+        this(new ExhaustEmitter());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param exhaust sends the exhaust effects of this batch.
+     */
+    public ThrustBatch(ExhaustEmitter exhaust) {
+        _exhaust = exhaust;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a player to the batch.
+     *
+     * The caller must ensure that the player's cached capabilities show that
+     * they are wearing elytra, and must have captured the player's snapshot in
+     * the current tick. If the elytra are broken, no acceleration is applied and a
+     * different engine sound is played when the batch is applied.
+     *
+     * @param state the player's state.
+     * @param acceleration acceleration to apply in the player's look direction.
+     */
+    public void add(PlayerState state, double acceleration) {
+        if (_size == _states.length) {
+            grow();
+        }
+
+        ++WingCommander.STATS.THRUST_TICKS;
+        state._gaugesPossible = true;
+        state._thrusting = true;
+
+        FlightSnapshot snapshot = state._snapshot;
+        int i = _size++;
+        _states[i] = state;
+        _worlds[i] = snapshot.getWorld();
+        _x[i] = snapshot.getX();
+        _y[i] = snapshot.getY();
+        _z[i] = snapshot.getZ();
+        _yaw[i] = snapshot.getYaw();
+        _pitch[i] = snapshot.getPitch();
+        _vx[i] = snapshot.getVelocityX();
+        _vy[i] = snapshot.getVelocityY();
+        _vz[i] = snapshot.getVelocityZ();
+        _acceleration[i] = acceleration;
+        // Method precondition is "wearing elytra irrespective of durability".
+        // Check for unbroken elytra.
+        _unbroken[i] = state.hasCapabilities(Capabilities.UNBROKEN_ELYTRA);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of players in the batch.
+     *
+     * @return the number of players in the batch.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Boost the velocity of every player in the batch in their look direction,
+     * but limit the magnitude of the velocity to the configured maximum, then
+     * empty the batch.
+     *
+     * When power is applied and the elytra are not broken, glide is enabled. If
+     * the elytra are broken, only glide if configured to do so.
+     *
+     * Also show particle effects and play the engine sound. If the elytra are
+     * too damaged to function, no acceleration is applied and a different
+     * engine sound is played. Each player's snapshot is updated to match.
+     *
+     * @param tick the current tick number.
+     */
+    public void apply(long tick) {
+        if (_size == 0) {
+            return;
+        }
+
+        long start = WingCommander.STATS.start();
+        Configuration config = WingCommander.CONFIG;
+        double maxVelocity = config.MAX_VELOCITY;
+        double maxVelocitySquared = config.MAX_VELOCITY_SQUARED;
+        double inverseMaxVelocity = config.INVERSE_MAX_VELOCITY;
+        for (int i = 0; i < _size; ++i) {
+            // Look direction, as computed by Location.getDirection().
+            double yaw = Math.toRadians(_yaw[i]);
+            double pitch = Math.toRadians(_pitch[i]);
+            double xz = Math.cos(pitch);
+            double lookX = -xz * Math.sin(yaw);
+            double lookY = -Math.sin(pitch);
+            double lookZ = xz * Math.cos(yaw);
+
+            // Base the sound pitch on the current (not new) speed. Good enough.
+            // Pitch is limited to the [0.5, 2.0] range in the client,
+            // apparently. Dot product measures whether player is moving in the
+            // direction they look.
+            double vx = _vx[i];
+            double vy = _vy[i];
+            double vz = _vz[i];
+            double along = vx * lookX + vy * lookY + vz * lookZ;
+            _soundPitch[i] = 0.5f + 1.5f * (float) (Math.max(0.0, along) * inverseMaxVelocity);
+
+            double acceleration = _acceleration[i];
+            vx += acceleration * lookX;
+            vy += acceleration * lookY;
+            vz += acceleration * lookZ;
+            double lengthSquared = vx * vx + vy * vy + vz * vz;
+            double scale = (lengthSquared > maxVelocitySquared) ? maxVelocity / Math.sqrt(lengthSquared) : 1.0;
+            _vx[i] = vx * scale;
+            _vy[i] = vy * scale;
+            _vz[i] = vz * scale;
+        }
+
+        for (int i = 0; i < _size; ++i) {
+            PlayerState state = _states[i];
+            Player player = state._player;
+            if (_unbroken[i]) {
+                player.setGliding(true);
+                _velocity.setX(_vx[i]).setY(_vy[i]).setZ(_vz[i]);
+                player.setVelocity(_velocity);
+                state._snapshot.setGliding(true);
+                state._snapshot.setVelocity(_vx[i], _vy[i], _vz[i]);
+                _exhaust.add(_worlds[i], _x[i], _y[i], _z[i],
+                             true, config.EXHAUST_SOUND,
+                             config.EXHAUST_VOLUME, _soundPitch[i], state._tickPhase);
+            } else {
+                _exhaust.add(_worlds[i], _x[i], _y[i], _z[i],
+                             false, config.BROKEN_SOUND,
+                             config.BROKEN_VOLUME, _soundPitch[i], state._tickPhase);
+                if (config.BROKEN_GLIDE) {
+                    player.setGliding(true);
+                    state._snapshot.setGliding(true);
+                    player.setFallDistance(Math.max(0, player.getFallDistance() - config.BROKEN_GLIDE_FALL_REDUCTION));
+                }
+            }
+
+            // Don't keep players or worlds reachable after they leave.
+            _states[i] = null;
+            _worlds[i] = null;
+        }
+        _size = 0;
+        _exhaust.flush(config, tick);
+        WingCommander.STATS.ACCELERATE.record(start);
+    } // apply
+
+    // ------------------------------------------------------------------------
+    /**
+     * Double the capacity of the batch.
+     */
+    protected void grow() {
+        int capacity = 2 * _states.length;
+        _states = Arrays.copyOf(_states, capacity);
+        _worlds = Arrays.copyOf(_worlds, capacity);
+        _x = Arrays.copyOf(_x, capacity);
+        _y = Arrays.copyOf(_y, capacity);
+        _z = Arrays.copyOf(_z, capacity);
+        _yaw = Arrays.copyOf(_yaw, capacity);
+        _pitch = Arrays.copyOf(_pitch, capacity);
+        _vx = Arrays.copyOf(_vx, capacity);
+        _vy = Arrays.copyOf(_vy, capacity);
+        _vz = Arrays.copyOf(_vz, capacity);
+        _acceleration = Arrays.copyOf(_acceleration, capacity);
+        _soundPitch = Arrays.copyOf(_soundPitch, capacity);
+        _unbroken = Arrays.copyOf(_unbroken, capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Initial capacity of the batch.
+     */
+    protected static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of players in the batch.
+     */
+    protected int _size;
+
+    /**
+     * States of the players in the batch.
+     */
+    protected PlayerState[] _states = new PlayerState[INITIAL_CAPACITY];
+
+    /**
+     * Worlds of the players in the batch.
+     */
+    protected World[] _worlds = new World[INITIAL_CAPACITY];
+
+    /**
+     * Player positions.
+     */
+    protected double[] _x = new double[INITIAL_CAPACITY],
+                    _y = new double[INITIAL_CAPACITY],
+                    _z = new double[INITIAL_CAPACITY];
+
+    /**
+     * Player look directions in degrees.
+     */
+    protected float[] _yaw = new float[INITIAL_CAPACITY],
+                    _pitch = new float[INITIAL_CAPACITY];
+
+    /**
+     * Player velocities; replaced by the new velocities in {@link #apply(long)}.
+     */
+    protected double[] _vx = new double[INITIAL_CAPACITY],
+                    _vy = new double[INITIAL_CAPACITY],
+                    _vz = new double[INITIAL_CAPACITY];
+
+    /**
+     * Acceleration to apply to each player.
+     */
+    protected double[] _acceleration = new double[INITIAL_CAPACITY];
+
+    /**
+     * Pitch of each player's engine sound.
+     */
+    protected float[] _soundPitch = new float[INITIAL_CAPACITY];
+
+    /**
+     * True for each player whose elytra are not broken.
+     */
+    protected boolean[] _unbroken = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Vector used to set player velocities.
+     */
+    protected Vector _velocity = new Vector();
+
+    /**
+     * Sends exhaust particles and sounds to nearby players.
+     */
+    protected ExhaustEmitter _exhaust;
+} // class ThrustBatch
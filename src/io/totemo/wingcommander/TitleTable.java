@@ -0,0 +1,74 @@
+package io.totemo.wingcommander;
+
+// ----------------------------------------------------------------------------
+/**
+ * A precomputed table of gauge titles, indexed by integer reading.
+ *
+ * Tables are built when the configuration is loaded, so that looking up the
+ * title of a gauge in flight does not allocate a new String. Readings outside
+ * the range of the table are formatted on demand.
+ */
+public class TitleTable {
+    /**
+     * Constructor.
+     *
+     * @param format the String.format() format of the title.
+     * @param tenths if true, readings are in tenths and are formatted as a
+     *        double; otherwise they are formatted as an integer.
+     * @param min the minimum reading in the table.
+     * @param max the maximum reading in the table.
+     */
+    public TitleTable(String format, boolean tenths, int min, int max) {
+        _format = format;
+        _tenths = tenths;
+        _min = min;
+        _titles = new String[Math.max(0, max - min + 1)];
+        for (int i = 0; i < _titles.length; ++i) {
+            _titles[i] = format(min + i);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the title corresponding to the specified reading.
+     *
+     * @param reading the reading, in whole units or tenths.
+     * @return the title.
+     */
+    public String get(int reading) {
+        int index = reading - _min;
+        return (index >= 0 && index < _titles.length) ? _titles[index] : format(reading);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format the title for the specified reading.
+     *
+     * @param reading the reading, in whole units or tenths.
+     * @return the title.
+     */
+    protected String format(int reading) {
+        return _tenths ? String.format(_format, reading / 10.0) : String.format(_format, reading);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Format of titles.
+     */
+    protected String _format;
+
+    /**
+     * If true, readings are in tenths.
+     */
+    protected boolean _tenths;
+
+    /**
+     * Reading corresponding to the first entry of _titles.
+     */
+    protected int _min;
+
+    /**
+     * Precomputed titles.
+     */
+    protected String[] _titles;
+} // class TitleTable
@@ -2,25 +2,49 @@ package io.totemo.wingcommander;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.TNTPrimed;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockDispenseArmorEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.entity.EntityToggleGlideEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerItemHeldEvent;
+import org.bukkit.event.player.PlayerItemDamageEvent;
+import org.bukkit.event.player.PlayerItemMendEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerSwapHandItemsEvent;
 import org.bukkit.event.player.PlayerToggleSneakEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -32,9 +56,23 @@ import org.bukkit.util.Vector;
  */
 public class WingCommander extends JavaPlugin implements Listener {
     /**
-     * Configuration wrapper instance.
+     * The current configuration snapshot.
+     *
+     * The reference is replaced as a whole when the configuration is
+     * reloaded. Read it once into a local variable to use several settings
+     * consistently.
+     */
+    public static volatile Configuration CONFIG;
+
+    /**
+     * Performance statistics.
      */
-    public static Configuration CONFIG = new Configuration();
+    public static Stats STATS = new Stats();
+
+    /**
+     * Cached terrain heights, shared by all players.
+     */
+    public static HeightCache HEIGHTS = new HeightCache();
 
     /**
      * This plugin, accessible as, effectively, a singleton.
@@ -50,20 +88,43 @@ public class WingCommander extends JavaPlugin implements Listener {
         PLUGIN = this;
 
         saveDefaultConfig();
-        CONFIG.reload();
+        try {
+            CONFIG = Configuration.load(this);
+        } catch (RuntimeException ex) {
+            getLogger().severe(ex.getMessage());
+            getLogger().severe("Using the default configuration until config.yml is fixed and reloaded.");
+            CONFIG = Configuration.loadDefaults(this);
+        }
 
-        File playersFile = new File(WingCommander.PLUGIN.getDataFolder(), PLAYERS_FILE);
-        _playerConfig = YamlConfiguration.loadConfiguration(playersFile);
+        _preferences = new PreferencesStore(new File(getDataFolder(), PLAYERS_FILE),
+                                            new File(getDataFolder(), LEGACY_PLAYERS_FILE));
+        try {
+            _preferences.start(CONFIG.PLAYERS_SAVE_SECONDS);
+        } catch (IOException ex) {
+            getLogger().severe("Unable to open player data; gauge settings will not be saved: " + ex.getMessage());
+        }
+        _recorder = new FlightRecorder(new File(getDataFolder(), RECORDINGS_DIRECTORY));
+        _recorder.start();
+
+        // Size the state map for a full server, so it never rehashes.
+        _state = new ConcurrentHashMap<UUID, PlayerState>(Math.max(16, 2 * getServer().getMaxPlayers()));
+
+        _gliders = FlightScheduler.create(getLogger());
+        _gliders.start(this, null);
+        HEIGHTS.start(_gliders);
+
+        // Players who were online before a reload never fired a join event.
+        for (final Player player : Bukkit.getOnlinePlayers()) {
+            preloadOnlinePlayer(player);
+            _gliders.execute(player, new Runnable() {
+                @Override
+                public void run() {
+                    _gliders.add(getState(player));
+                }
+            });
+        }
 
         getServer().getPluginManager().registerEvents(this, this);
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
-            @Override
-            public void run() {
-                for (Player player : Bukkit.getOnlinePlayers()) {
-                    getState(player).onTick();
-                }
-            }
-        }, 1, 1);
     }
 
     // ------------------------------------------------------------------------
@@ -72,17 +133,16 @@ public class WingCommander extends JavaPlugin implements Listener {
      */
     @Override
     public void onDisable() {
-        Bukkit.getScheduler().cancelTasks(this);
+        _gliders.stop();
 
         // Gauge settings weren't being saved on restart. Save all here.
         for (PlayerState state : _state.values()) {
-            state.save(_playerConfig);
-        }
-        try {
-            _playerConfig.save(new File(WingCommander.PLUGIN.getDataFolder(), PLAYERS_FILE));
-        } catch (IOException ex) {
-            WingCommander.PLUGIN.getLogger().warning("Unable to save player data: " + ex.getMessage());
+            state.endFlight();
+            state.save(_preferences);
         }
+        _preferences.stop();
+        _recorder.stop();
+        HEIGHTS.stop();
     }
 
     // ------------------------------------------------------------------------
@@ -94,9 +154,22 @@ public class WingCommander extends JavaPlugin implements Listener {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (command.getName().equalsIgnoreCase(getName())) {
             if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
-                CONFIG.reload();
-                sender.sendMessage(ChatColor.GOLD + getName() + " configuration reloaded.");
+                cmdReload(sender);
+                return true;
+            } else if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+                STATS.report(sender);
                 return true;
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("stats") && args[1].equalsIgnoreCase("reset")) {
+                STATS.reset();
+                sender.sendMessage(ChatColor.GOLD + getName() + " statistics reset.");
+                return true;
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+                cmdPilotStats(sender, args[1]);
+                return true;
+            } else if (args.length == 2 && args[0].equalsIgnoreCase("top")) {
+                if (cmdTop(sender, args[1])) {
+                    return true;
+                }
             }
         } else if (command.getName().equalsIgnoreCase("gauge")) {
             cmdGauge(sender, args);
@@ -107,35 +180,304 @@ public class WingCommander extends JavaPlugin implements Listener {
         return true;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /wingcommander reload.
+     *
+     * The configuration is parsed and validated off the server thread. The
+     * new snapshot then replaces the old one in a single assignment on the
+     * server thread, so that ticks in progress finish with the settings they
+     * started with. If the configuration cannot be loaded, the current
+     * settings are kept.
+     *
+     * @param sender the command sender.
+     */
+    protected void cmdReload(final CommandSender sender) {
+        CompletableFuture.supplyAsync(new Supplier<Configuration>() {
+            @Override
+            public Configuration get() {
+                return Configuration.load(WingCommander.this);
+            }
+        }).whenComplete(new BiConsumer<Configuration, Throwable>() {
+            @Override
+            public void accept(final Configuration config, final Throwable error) {
+                _gliders.executeGlobal(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (error != null) {
+                            // The future wraps the exception thrown by load().
+                            Throwable cause = (error.getCause() != null) ? error.getCause() : error;
+                            getLogger().severe("Unable to reload the configuration: " + cause.getMessage());
+                            sender.sendMessage(ChatColor.RED + getName() +
+                                               " configuration could not be loaded; keeping the current settings.");
+                            return;
+                        }
+
+                        CONFIG = config;
+                        refreshCapabilities();
+
+                        // Settings such as the vacuum altitude may have changed.
+                        for (final PlayerState state : _state.values()) {
+                            _gliders.execute(state._player, new Runnable() {
+                                @Override
+                                public void run() {
+                                    _gliders.add(state);
+                                }
+                            });
+                        }
+                        sender.sendMessage(ChatColor.GOLD + getName() + " configuration reloaded.");
+                    }
+                });
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /wingcommander top distance|speed|airtime|takeoffs.
+     *
+     * @param sender the command sender.
+     * @param name the name of the ranked value.
+     * @return false if the name is not recognised.
+     */
+    protected boolean cmdTop(CommandSender sender, String name) {
+        int index = Leaderboards.indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+
+        Leaderboard board = _leaderboards.get(index);
+        PilotStats[] pilots = new PilotStats[board.getCapacity()];
+        double[] values = new double[board.getCapacity()];
+        int count = board.copy(pilots, values);
+        sender.sendMessage(ChatColor.GOLD + "Top " + Leaderboards.NAMES[index] + ":");
+        if (count == 0) {
+            sender.sendMessage(ChatColor.GRAY + "No flights yet.");
+        }
+        for (int i = 0; i < count; ++i) {
+            sender.sendMessage(ChatColor.GOLD + "#" + (i + 1) + " " + ChatColor.YELLOW + pilots[i].getPlayerName() +
+                               ChatColor.WHITE + ": " + Leaderboards.format(index, values[i]));
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /wingcommander stats &lt;player&gt;.
+     *
+     * @param sender the command sender.
+     * @param playerName the name of the player.
+     */
+    protected void cmdPilotStats(CommandSender sender, String playerName) {
+        PilotStats pilot = _leaderboards.findPilot(playerName);
+        if (pilot == null) {
+            sender.sendMessage(ChatColor.RED + playerName + " has not logged in since the server started.");
+            return;
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Flight statistics of " + ChatColor.YELLOW + pilot.getPlayerName() +
+                           ChatColor.GOLD + " since the server started:");
+        for (int i = 0; i < PilotStats.RANKED; ++i) {
+            sender.sendMessage(ChatColor.GOLD + Leaderboards.NAMES[i] + ": " +
+                               ChatColor.WHITE + Leaderboards.format(i, pilot.get(i)));
+        }
+        sender.sendMessage(ChatColor.GOLD + "thrust: " + ChatColor.WHITE + Leaderboards.formatTicks(pilot.getThrustTicks()) +
+                           ChatColor.GOLD + ", durability used: " + ChatColor.WHITE + pilot.getDurabilityUsed());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the player's preferences from disk before they join, off the
+     * server thread.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            _preferences.preload(event.getUniqueId());
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * On join, allocate each player a {@link PlayerState} instance.
+     *
+     * The player is ticked at least once, in case they join in the vacuum.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
-        _state.put(player.getName(), new PlayerState(player, _playerConfig));
+        _gliders.add(getState(event.getPlayer()));
     }
 
     // ------------------------------------------------------------------------
     /**
-     * On quit, forget the {@link PlayerState}.
+     * When a player changes worlds, recheck their capabilities, since
+     * permissions can be per-world.
+     */
+    @EventHandler(ignoreCancelled = true)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        getState(event.getPlayer()).refreshCapabilities();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * On quit, forget the {@link PlayerState} and in-memory preferences.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerQuit(PlayerQuitEvent event) {
-        PlayerState state = _state.remove(event.getPlayer().getName());
-        state.save(_playerConfig);
+        UUID uuid = event.getPlayer().getUniqueId();
+        PlayerState state = _state.remove(uuid);
+        if (state != null) {
+            _gliders.remove(state);
+            state.endFlight();
+            state.save(_preferences);
+        }
+        _preferences.unload(uuid);
     }
 
     // ------------------------------------------------------------------------
     /**
      * Handle player crouch.
+     *
+     * Crouching players are ticked until they stop crouching. Their equipment
+     * is rechecked when they start crouching; permission changes take effect
+     * at the next capability resync.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerToggleSneak(PlayerToggleSneakEvent event) {
-        Player player = event.getPlayer();
-        if (isFlightCapable(player) && event.isSneaking()) {
-            getState(player).onCrouch();
+        if (event.isSneaking()) {
+            Player player = event.getPlayer();
+            PlayerState state = getState(player);
+            _gliders.add(state);
+            state.checkEquipment();
+            if (state.isFlightCapable()) {
+                state.onCrouch(_gliders.getThrustBatch(), _gliders.getTickCount());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a player starts gliding, tick them until they land.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntityToggleGlide(EntityToggleGlideEvent event) {
+        if (event.isGliding() && event.getEntity() instanceof Player) {
+            _gliders.add(getState((Player) event.getEntity()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Track the durability of a player's elytra as they take damage.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerItemDamage(PlayerItemDamageEvent event) {
+        if (event.getItem().getType() == Material.ELYTRA) {
+            getState(event.getPlayer()).onElytraDamaged(event.getDamage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When elytra are mended, recheck the player's equipment.
+     *
+     * Mending can repair a held item rather than the worn one, so the repair
+     * amount cannot simply be added to the tracked durability.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerItemMend(PlayerItemMendEvent event) {
+        if (event.getItem().getType() == Material.ELYTRA) {
+            getState(event.getPlayer()).invalidateEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Inventory clicks can put on or take off elytra, or change the held
+     * item.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (event.getWhoClicked() instanceof Player) {
+            getState((Player) event.getWhoClicked()).invalidateEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Inventory drags can put on elytra, or put TNT in the player's hand.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryDrag(InventoryDragEvent event) {
+        if (event.getWhoClicked() instanceof Player) {
+            getState((Player) event.getWhoClicked()).invalidateEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Changing the selected hotbar slot changes the held item, which
+     * determines whether the bomb sight is shown.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerItemHeld(PlayerItemHeldEvent event) {
+        getState(event.getPlayer()).invalidateEquipment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Swapping hands changes the held item.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerSwapHandItems(PlayerSwapHandItemsEvent event) {
+        getState(event.getPlayer()).invalidateEquipment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Dispensers can put elytra on players.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockDispenseArmor(BlockDispenseArmorEvent event) {
+        if (event.getTargetEntity() instanceof Player && event.getItem().getType() == Material.ELYTRA) {
+            getState((Player) event.getTargetEntity()).invalidateEquipment();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Dying can drop the player's elytra.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        getState(event.getEntity()).invalidateEquipment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recheck equipment on respawn, in case it was changed by another plugin.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        getState(event.getPlayer()).invalidateEquipment();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a player moves into the vacuum by any means, tick them until they
+     * leave it.
+     *
+     * This also handles teleports, since PlayerTeleportEvent is a
+     * PlayerMoveEvent.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location to = event.getTo();
+        if (CONFIG.AIRSPACE.mayBeVacuum(to.getWorld(), to.getY())) {
+            PlayerState state = getState(event.getPlayer());
+            if (state.isInVacuum(to)) {
+                _gliders.add(state);
+            }
         }
     }
 
@@ -143,15 +485,87 @@ public class WingCommander extends JavaPlugin implements Listener {
     /**
      * Handle player interactions:
      * <ul>
-     * <li>Launch TNT if permitted and gliding.</li>
+     * <li>Launch TNT if permitted and gliding, within the rate and live TNT
+     * limits.</li>
      * <li>Set gliding if player right clicks a rocket while in the air and
      * wearing elytra, to compensate for NCP's interference.</li>
      * </ul>
      */
     @EventHandler
     public void onPlayerInteract(PlayerInteractEvent event) {
+        long start = STATS.start();
+        handlePlayerInteract(event);
+        STATS.INTERACT.record(start);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When TNT explodes, stop counting it against the live TNT limits.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        if (event.getEntityType() == EntityType.PRIMED_TNT) {
+            _tntBudget.release(event.getEntity().getEntityId());
+        }
+        if (!event.isCancelled()) {
+            long tick = _gliders.getTickCount();
+            for (Block block : event.blockList()) {
+                HEIGHTS.onBlockRemoved(block, tick);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a chunk unloads, discard its terrain heights.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        HEIGHTS.remove(event.getChunk());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a world unloads, discard its terrain heights.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        HEIGHTS.remove(event.getWorld());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Keep cached terrain heights up to date as blocks are placed.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        HEIGHTS.onBlockPlaced(event.getBlock());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Keep cached terrain heights up to date as blocks are broken.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBlockBreak(BlockBreakEvent event) {
+        HEIGHTS.onBlockRemoved(event.getBlock(), _gliders.getTickCount());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Implement {@link #onPlayerInteract(PlayerInteractEvent)}.
+     *
+     * @param event the event.
+     */
+    protected void handlePlayerInteract(PlayerInteractEvent event) {
         Player player = event.getPlayer();
 
+        // Right clicking elytra, in the air or on a block, puts them on.
+        ItemStack item = event.getItem();
+        if (item != null && item.getType() == Material.ELYTRA) {
+            getState(player).invalidateEquipment();
+        }
+
         // Only handle left and right click air events
         Action action = event.getAction();
         if (action != Action.LEFT_CLICK_AIR && action != Action.RIGHT_CLICK_AIR) {
@@ -160,16 +574,18 @@ public class WingCommander extends JavaPlugin implements Listener {
 
         // Assisted takeoff if wearing unbroken elytra.
         // NOTE: event.getItem() allows off hand use.
+        PlayerState state = getState(player);
         if (action == Action.RIGHT_CLICK_AIR &&
             event.getItem().getType() == Material.FIREWORK_ROCKET &&
             !player.isOnGround() &&
-            player.getVehicle() == null &&
-            isWearingElytra(player, true)) {
+            player.getVehicle() == null) {
 
+            state.checkEquipment();
             Block feetBlock = player.getLocation().getBlock();
-            if (feetBlock != null && canAssistedTakeOffFrom(feetBlock)) {
-                PlayerState state = getState(player);
-                state.setTakingOff();
+            if (state.hasCapabilities(Capabilities.UNBROKEN_ELYTRA) &&
+                feetBlock != null && canAssistedTakeOffFrom(feetBlock) && !state.isInNoFlyZone()) {
+                state.setTakingOff(_gliders.getTickCount());
+                _gliders.add(state);
                 player.setGliding(true);
             }
         }
@@ -177,35 +593,72 @@ public class WingCommander extends JavaPlugin implements Listener {
         // Only throw TNT if permitted, gliding and holding TNT.
         PlayerInventory inventory = player.getInventory();
         ItemStack stack = inventory.getItemInMainHand();
-        if (!player.hasPermission("wingcommander.tnt") ||
+        if (!state.hasCapabilities(Capabilities.TNT) ||
             !player.isGliding() ||
             stack.getType() != Material.TNT) {
             return;
         }
 
+        // Refuse quickly if the player is throwing too fast, then check the
+        // live TNT limits.
+        Configuration config = CONFIG;
+        long tick = _gliders.getTickCount();
+        if (!state.takeTNTToken(config, tick)) {
+            ++STATS.TNT_THROTTLED;
+            state.warnTNT(tick, "You can't throw TNT that fast.");
+            return;
+        }
+        Location location = player.getLocation();
+        String worldName = location.getWorld().getName();
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        int reservation = _tntBudget.tryReserve(config, worldName, chunkX, chunkZ, tick,
+                                                tick + DEFAULT_TNT_FUSE_TICKS + TNT_EXPIRY_MARGIN_TICKS);
+        if (reservation == 0) {
+            state.returnTNTToken();
+            ++STATS.TNT_THROTTLED;
+            state.warnTNT(tick, "There is too much live TNT here. Try again shortly.");
+            return;
+        }
+
+        // Spawn TNT, giving back the reservation if that fails.
+        Entity tnt;
+        try {
+            tnt = player.getWorld().spawnEntity(location, EntityType.PRIMED_TNT);
+        } catch (RuntimeException ex) {
+            _tntBudget.release(reservation);
+            throw ex;
+        }
+        if (tnt == null) {
+            _tntBudget.release(reservation);
+            state.returnTNTToken();
+            return;
+        }
+        int fuseTicks = (tnt instanceof TNTPrimed) ? ((TNTPrimed) tnt).getFuseTicks() : DEFAULT_TNT_FUSE_TICKS;
+        _tntBudget.bind(reservation, tnt.getEntityId(), tick + fuseTicks + TNT_EXPIRY_MARGIN_TICKS);
+
         // Use up a TNT.
         int amount = stack.getAmount() - 1;
         if (amount > 1) {
             stack.setAmount(amount);
         } else {
             inventory.setItemInMainHand(null);
+            state.invalidateEquipment();
         }
-
-        // Spawn TNT.
-        Entity tnt = player.getWorld().spawnEntity(player.getLocation(), EntityType.PRIMED_TNT);
+        ++STATS.TNT_SPAWNED;
 
         if (action == Action.LEFT_CLICK_AIR) {
             // Throw the TNT forward.
-            Vector TNTVelocity = player.getLocation().getDirection();
+            Vector TNTVelocity = location.getDirection();
             TNTVelocity.normalize();
-            TNTVelocity.multiply(WingCommander.CONFIG.TNT_THROW_SPEED);
+            TNTVelocity.multiply(config.TNT_THROW_SPEED);
             TNTVelocity.add(player.getVelocity());
             tnt.setVelocity(TNTVelocity);
         } else if (action == Action.RIGHT_CLICK_AIR) {
             // Drop the TNT with current velocity.
             tnt.setVelocity(player.getVelocity());
         }
-    } // onPlayerInteract
+    } // handlePlayerInteract
 
     // ------------------------------------------------------------------------
     /**
@@ -229,43 +682,85 @@ public class WingCommander extends JavaPlugin implements Listener {
 
     // ------------------------------------------------------------------------
     /**
-     * Return true if the player is wearing elytra.
+     * Recheck the cached capabilities of all online players.
      *
-     * @param player the player.
-     * @param requireDurability if true, the elytra must have durability > 0; if
-     *        false, even broken elytra are considered valid.
-     * @return true if the player is wearing elytra, with durability if
-     *         required.
+     * This is done when the configuration is reloaded. Periodic rechecks are
+     * spread over ticks by {@link PlayerState#checkCapabilities()}. Each player
+     * is rechecked on the thread that owns them.
      */
-    protected static boolean isWearingElytra(Player player, boolean requireDurability) {
-        ItemStack chest = player.getEquipment().getChestplate();
-        return chest != null &&
-               chest.getType() == Material.ELYTRA &&
-               (!requireDurability || Material.ELYTRA.getMaxDurability() - chest.getDurability() > 0);
+    protected void refreshCapabilities() {
+        for (final PlayerState state : _state.values()) {
+            _gliders.execute(state._player, new Runnable() {
+                @Override
+                public void run() {
+                    state.refreshCapabilities();
+                }
+            });
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return true if the Player is wearing elytra and has permission for
-     * powered flight.
+     * Load the preferences of a player who was online when the plugin was
+     * enabled, without file I/O on the server thread.
+     *
+     * The player sees the default preferences until the load completes, then
+     * their {@link PlayerState} is updated on the thread that owns them. If
+     * the player has left by then, their preferences are forgotten.
      *
      * @param player the player.
-     * @return true if the Player is wearing elytra and has permission for
-     *         powered flight.
      */
-    protected static boolean isFlightCapable(Player player) {
-        return isWearingElytra(player, false) && player.hasPermission("wingcommander.fly");
+    protected void preloadOnlinePlayer(final Player player) {
+        final UUID uuid = player.getUniqueId();
+        _preferences.preloadAsync(uuid, new Runnable() {
+            @Override
+            public void run() {
+                _gliders.executeGlobal(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (Bukkit.getPlayer(uuid) == null) {
+                            _preferences.unload(uuid);
+                            return;
+                        }
+                        _gliders.execute(player, new Runnable() {
+                            @Override
+                            public void run() {
+                                PlayerState state = _state.get(uuid);
+                                if (state != null) {
+                                    state.load(_preferences);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return the {@link PlayerState} for the specified player.
+     * Return the {@link PlayerState} for the specified player, creating it if
+     * necessary.
+     *
+     * Only online players' states are kept. An event handled after the player
+     * has quit gets a transient state that is not kept, since nothing would
+     * remove it.
      *
      * @param player the player.
-     * @return the {@link PlayerState} for the specified player.
+     * @return the {@link PlayerState} for the specified player; never null.
      */
     protected PlayerState getState(Player player) {
-        return _state.get(player.getName());
+        PlayerState state = _state.get(player.getUniqueId());
+        if (state == null) {
+            state = new PlayerState(player, _preferences, _recorder, _leaderboards);
+            if (player.isOnline()) {
+                PlayerState existing = _state.putIfAbsent(player.getUniqueId(), state);
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+        }
+        return state;
     }
 
     // ------------------------------------------------------------------------
@@ -277,6 +772,7 @@ public class WingCommander extends JavaPlugin implements Listener {
     protected void cmdGauge(CommandSender sender, String[] args) {
         if (!(sender instanceof Player)) {
             sender.sendMessage("You need to be in-game to use gauges.");
+            return;
         }
 
         if (args.length == 0 || (args.length == 1 && args[0].equalsIgnoreCase("help")) || args.length > 2) {
@@ -338,6 +834,9 @@ public class WingCommander extends JavaPlugin implements Listener {
             } else {
                 sender.sendMessage(ChatColor.RED + "The gauge name must be 'altitude', 'speed', 'wings' or 'pitch'.");
             }
+
+            // Schedule changes to be written to disk.
+            state.save(_preferences);
         }
     } // cmdGauge
 
@@ -345,17 +844,66 @@ public class WingCommander extends JavaPlugin implements Listener {
     /**
      * Name of players file.
      */
-    protected static final String PLAYERS_FILE = "players.yml";
+    protected static final String PLAYERS_FILE = "players.dat";
+
+    /**
+     * Name of the YAML players file used by earlier versions.
+     */
+    protected static final String LEGACY_PLAYERS_FILE = "players.yml";
+
+    /**
+     * Name of the directory of flight recordings.
+     */
+    protected static final String RECORDINGS_DIRECTORY = "recordings";
+
+    /**
+     * Number of players listed on each leaderboard.
+     */
+    protected static final int LEADERBOARD_SIZE = 10;
+
+    /**
+     * Fuse of primed TNT in ticks, if it cannot be read from the entity.
+     */
+    protected static final int DEFAULT_TNT_FUSE_TICKS = 80;
+
+    /**
+     * Ticks after its fuse runs out that TNT that did not explode stops
+     * counting against the live TNT limits.
+     */
+    protected static final int TNT_EXPIRY_MARGIN_TICKS = 20;
+
+    /**
+     * Persistent per-player settings.
+     */
+    protected PreferencesStore _preferences;
+
+    /**
+     * Records flights to disk.
+     */
+    protected FlightRecorder _recorder;
+
+    /**
+     * Flight statistics and leaderboards of all players since the server
+     * started.
+     */
+    protected Leaderboards _leaderboards = new Leaderboards(LEADERBOARD_SIZE);
 
     /**
-     * Configuration file for per-player settings.
+     * Limits the live TNT spawned by the plugin.
      */
-    protected YamlConfiguration _playerConfig;
+    protected TNTBudget _tntBudget = new TNTBudget();
 
     /**
-     * Map from Player name to {@link PlayerState} instance.
+     * Map from Player UUID to {@link PlayerState} instance.
      *
-     * A Player's PlayerState exists only for the duration of a login.
+     * A Player's PlayerState exists only for the duration of a login. It is
+     * created on first access. The map is shared by all region threads, but
+     * each PlayerState is only accessed on the thread that owns its player.
+     */
+    protected ConcurrentHashMap<UUID, PlayerState> _state = new ConcurrentHashMap<UUID, PlayerState>();
+
+    /**
+     * Ticks players whose {@link PlayerState} needs to be ticked.
      */
-    protected HashMap<String, PlayerState> _state = new HashMap<String, PlayerState>();
+    protected FlightScheduler _gliders;
 } // class WingCommander
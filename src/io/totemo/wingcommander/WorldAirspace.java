@@ -0,0 +1,132 @@
+package io.totemo.wingcommander;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+// ----------------------------------------------------------------------------
+/**
+ * The vacuum altitude and zones of one world, with the zones indexed by a
+ * uniform grid of cells.
+ *
+ * Each zone is listed in every cell that its bounding box overlaps, so a point
+ * only needs to be tested against the zones of the cell that contains it.
+ * Cells are a whole number of chunks wide, so every chunk lies in exactly one
+ * cell.
+ */
+public class WorldAirspace {
+    /**
+     * Base 2 logarithm of the width of a cell in blocks.
+     */
+    public static final int CELL_SHIFT = 8;
+
+    /**
+     * Constructor.
+     *
+     * @param vacuumAltitude the altitude at and above which there is vacuum,
+     *        or positive infinity for none.
+     * @param zones the zones in the world.
+     */
+    public WorldAirspace(double vacuumAltitude, List<Zone> zones) {
+        _vacuumAltitude = vacuumAltitude;
+        _lowestVacuumY = vacuumAltitude;
+
+        HashMap<Long, ArrayList<Zone>> cells = new HashMap<Long, ArrayList<Zone>>();
+        for (Zone zone : zones) {
+            if ((zone.getFlags() & Zone.VACUUM) != 0) {
+                _lowestVacuumY = Math.min(_lowestVacuumY, zone.getMinY());
+            }
+            int minCellX = (int) Math.floor(zone.getMinX()) >> CELL_SHIFT;
+            int maxCellX = (int) Math.floor(zone.getMaxX()) >> CELL_SHIFT;
+            int minCellZ = (int) Math.floor(zone.getMinZ()) >> CELL_SHIFT;
+            int maxCellZ = (int) Math.floor(zone.getMaxZ()) >> CELL_SHIFT;
+            for (int cellX = minCellX; cellX <= maxCellX; ++cellX) {
+                for (int cellZ = minCellZ; cellZ <= maxCellZ; ++cellZ) {
+                    Long key = cellKey(cellX, cellZ);
+                    ArrayList<Zone> cell = cells.get(key);
+                    if (cell == null) {
+                        cell = new ArrayList<Zone>();
+                        cells.put(key, cell);
+                    }
+                    cell.add(zone);
+                }
+            }
+        }
+        for (Entry<Long, ArrayList<Zone>> entry : cells.entrySet()) {
+            _cells.put(entry.getKey(), entry.getValue().toArray(new Zone[entry.getValue().size()]));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the altitude at and above which there is vacuum everywhere in
+     * this world.
+     *
+     * @return the vacuum altitude, or positive infinity for none.
+     */
+    public double getVacuumAltitude() {
+        return _vacuumAltitude;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the lowest altitude at which there is vacuum anywhere in this
+     * world.
+     *
+     * @return the lowest vacuum altitude, or positive infinity for none.
+     */
+    public double getLowestVacuumY() {
+        return _lowestVacuumY;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the zones that may contain points in the specified chunk.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the zones; never null.
+     */
+    public Zone[] getZones(int chunkX, int chunkZ) {
+        if (_cells.isEmpty()) {
+            return NO_ZONES;
+        }
+        int shift = CELL_SHIFT - 4;
+        Zone[] zones = _cells.get(cellKey(chunkX >> shift, chunkZ >> shift));
+        return (zones != null) ? zones : NO_ZONES;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the specified cell.
+     *
+     * @param cellX the cell X coordinate.
+     * @param cellZ the cell Z coordinate.
+     * @return the key.
+     */
+    protected static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An empty array of zones.
+     */
+    protected static final Zone[] NO_ZONES = new Zone[0];
+
+    /**
+     * The altitude at and above which there is vacuum everywhere.
+     */
+    protected double _vacuumAltitude;
+
+    /**
+     * The lowest altitude at which there is vacuum anywhere.
+     */
+    protected double _lowestVacuumY;
+
+    /**
+     * Map from cell key to the zones that overlap the cell.
+     */
+    protected HashMap<Long, Zone[]> _cells = new HashMap<Long, Zone[]>();
+} // class WorldAirspace
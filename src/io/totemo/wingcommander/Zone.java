@@ -0,0 +1,277 @@
+package io.totemo.wingcommander;
+
+// ----------------------------------------------------------------------------
+/**
+ * A volume of airspace with special rules: a box or vertical cylinder in which
+ * players suffer vacuum damage or may not fly.
+ *
+ * Zones are immutable.
+ */
+public class Zone {
+    /**
+     * Flag set for zones in which players suffer vacuum damage.
+     */
+    public static final int VACUUM = 1 << 0;
+
+    /**
+     * Flag set for zones in which players may not fly.
+     */
+    public static final int NO_FLY = 1 << 1;
+
+    /**
+     * Result of {@link #compareColumn(double, double, double, double)}: the
+     * zone does not overlap the column.
+     */
+    public static final int DISJOINT = 0;
+
+    /**
+     * Result of {@link #compareColumn(double, double, double, double)}: the
+     * zone's horizontal extent contains the whole column.
+     */
+    public static final int CONTAINS = 1;
+
+    /**
+     * Result of {@link #compareColumn(double, double, double, double)}: the
+     * zone overlaps part of the column.
+     */
+    public static final int PARTIAL = 2;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a box-shaped zone.
+     *
+     * @param name the name of the zone, for messages.
+     * @param flags the rules of the zone: a combination of {@link #VACUUM} and
+     *        {@link #NO_FLY}.
+     * @param minX the minimum X coordinate.
+     * @param minY the minimum Y coordinate.
+     * @param minZ the minimum Z coordinate.
+     * @param maxX the maximum X coordinate.
+     * @param maxY the maximum Y coordinate.
+     * @param maxZ the maximum Z coordinate.
+     * @return the zone.
+     */
+    public static Zone box(String name, int flags, double minX, double minY, double minZ,
+                           double maxX, double maxY, double maxZ) {
+        return new Zone(name, flags, false,
+                        Math.min(minX, maxX), Math.min(minY, maxY), Math.min(minZ, maxZ),
+                        Math.max(minX, maxX), Math.max(minY, maxY), Math.max(minZ, maxZ));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a vertical cylinder-shaped zone.
+     *
+     * @param name the name of the zone, for messages.
+     * @param flags the rules of the zone: a combination of {@link #VACUUM} and
+     *        {@link #NO_FLY}.
+     * @param x the X coordinate of the axis.
+     * @param z the Z coordinate of the axis.
+     * @param radius the radius.
+     * @param minY the minimum Y coordinate.
+     * @param maxY the maximum Y coordinate.
+     * @return the zone.
+     */
+    public static Zone cylinder(String name, int flags, double x, double z, double radius, double minY, double maxY) {
+        radius = Math.abs(radius);
+        return new Zone(name, flags, true,
+                        x - radius, Math.min(minY, maxY), z - radius,
+                        x + radius, Math.max(minY, maxY), z + radius);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the zone.
+     *
+     * @return the name of the zone.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rules of the zone.
+     *
+     * @return a combination of {@link #VACUUM} and {@link #NO_FLY}.
+     */
+    public int getFlags() {
+        return _flags;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the zone contains the specified point.
+     *
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     * @return true if the zone contains the point.
+     */
+    public boolean contains(double x, double y, double z) {
+        if (y < _minY || y > _maxY || x < _minX || x > _maxX || z < _minZ || z > _maxZ) {
+            return false;
+        }
+        if (_cylinder) {
+            double dx = x - _centreX;
+            double dz = z - _centreZ;
+            return dx * dx + dz * dz <= _radiusSquared;
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Describe how the zone's horizontal extent relates to a vertical column
+     * with a rectangular cross section.
+     *
+     * The result is conservative: a cylinder that only touches a corner of the
+     * column may be reported as PARTIAL.
+     *
+     * @param minX the minimum X coordinate of the column.
+     * @param minZ the minimum Z coordinate of the column.
+     * @param maxX the maximum X coordinate of the column.
+     * @param maxZ the maximum Z coordinate of the column.
+     * @return {@link #DISJOINT}, {@link #CONTAINS} or {@link #PARTIAL}.
+     */
+    public int compareColumn(double minX, double minZ, double maxX, double maxZ) {
+        if (maxX < _minX || minX > _maxX || maxZ < _minZ || minZ > _maxZ) {
+            return DISJOINT;
+        }
+        if (_cylinder) {
+            // Nearest and farthest corners of the column from the axis.
+            double nearX = Math.max(minX, Math.min(_centreX, maxX)) - _centreX;
+            double nearZ = Math.max(minZ, Math.min(_centreZ, maxZ)) - _centreZ;
+            if (nearX * nearX + nearZ * nearZ > _radiusSquared) {
+                return DISJOINT;
+            }
+            double farX = Math.max(Math.abs(minX - _centreX), Math.abs(maxX - _centreX));
+            double farZ = Math.max(Math.abs(minZ - _centreZ), Math.abs(maxZ - _centreZ));
+            return (farX * farX + farZ * farZ <= _radiusSquared) ? CONTAINS : PARTIAL;
+        }
+        return (minX >= _minX && maxX <= _maxX && minZ >= _minZ && maxZ <= _maxZ) ? CONTAINS : PARTIAL;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the minimum X coordinate of the zone's bounding box.
+     *
+     * @return the minimum X coordinate.
+     */
+    public double getMinX() {
+        return _minX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the minimum Y coordinate of the zone.
+     *
+     * @return the minimum Y coordinate.
+     */
+    public double getMinY() {
+        return _minY;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the minimum Z coordinate of the zone's bounding box.
+     *
+     * @return the minimum Z coordinate.
+     */
+    public double getMinZ() {
+        return _minZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum X coordinate of the zone's bounding box.
+     *
+     * @return the maximum X coordinate.
+     */
+    public double getMaxX() {
+        return _maxX;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum Y coordinate of the zone.
+     *
+     * @return the maximum Y coordinate.
+     */
+    public double getMaxY() {
+        return _maxY;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum Z coordinate of the zone's bounding box.
+     *
+     * @return the maximum Z coordinate.
+     */
+    public double getMaxZ() {
+        return _maxZ;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param name the name of the zone.
+     * @param flags the rules of the zone.
+     * @param cylinder true for a cylinder inscribed in the bounding box; false
+     *        for a box.
+     * @param minX the minimum X coordinate of the bounding box.
+     * @param minY the minimum Y coordinate.
+     * @param minZ the minimum Z coordinate of the bounding box.
+     * @param maxX the maximum X coordinate of the bounding box.
+     * @param maxY the maximum Y coordinate.
+     * @param maxZ the maximum Z coordinate of the bounding box.
+     */
+    protected Zone(String name, int flags, boolean cylinder,
+                   double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        _name = name;
+        _flags = flags;
+        _cylinder = cylinder;
+        _minX = minX;
+        _minY = minY;
+        _minZ = minZ;
+        _maxX = maxX;
+        _maxY = maxY;
+        _maxZ = maxZ;
+        _centreX = 0.5 * (minX + maxX);
+        _centreZ = 0.5 * (minZ + maxZ);
+        double radius = 0.5 * (maxX - minX);
+        _radiusSquared = radius * radius;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The name of the zone.
+     */
+    protected final String _name;
+
+    /**
+     * The rules of the zone.
+     */
+    protected final int _flags;
+
+    /**
+     * True if the zone is a cylinder; false if a box.
+     */
+    protected final boolean _cylinder;
+
+    /**
+     * Bounding box.
+     */
+    protected final double _minX, _minY, _minZ, _maxX, _maxY, _maxZ;
+
+    /**
+     * Axis of a cylinder.
+     */
+    protected final double _centreX, _centreZ;
+
+    /**
+     * Square of the radius of a cylinder.
+     */
+    protected final double _radiusSquared;
+} // class Zone